@@ -0,0 +1,39 @@
+package cs107;
+
+import org.openjdk.jmh.annotations.Benchmark;
+
+/**
+ * Benchmarks of the conversions between Helper.Image::data and the channels or interleaved formats
+ * @version 1.0
+ * @since 1.0
+ */
+public class ArrayUtilsBenchmark {
+
+    @Benchmark
+    public byte[][] imageToChannels(ReferenceImage reference){
+        return ArrayUtils.imageToChannels(reference.image.data());
+    }
+
+    @Benchmark
+    public int[][] channelsToImage(ReferenceImage reference){
+        return ArrayUtils.channelsToImage(reference.channels, reference.height, reference.width);
+    }
+
+    @Benchmark
+    public byte[] fromARGB(ReferenceImage reference){
+        int[][] data = reference.image.data();
+        byte[] row = new byte[reference.width * 4];
+        for(int[] pixels : data)
+            PixelFormat.RGBA.fromARGB(pixels, 0, pixels.length, row, 0);
+        return row;
+    }
+
+    @Benchmark
+    public int[] toARGB(ReferenceImage reference){
+        int[] pixels = new int[reference.width];
+        for(int iRow = 0; iRow < reference.height; iRow++)
+            PixelFormat.BGR.toARGB(reference.bgr, iRow * reference.width * 3, pixels, 0, pixels.length);
+        return pixels;
+    }
+
+}
\ No newline at end of file
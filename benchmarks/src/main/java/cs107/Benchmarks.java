@@ -0,0 +1,75 @@
+package cs107;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Run the benchmarks with the GC profiler and summarize them per image
+ * @apiNote Accepts the usual JMH command line (for instance a regex selecting the benchmarks,
+ * or "-p name=beach" to select the images). Throughputs are given in MB/s of decoded pixels
+ * (4 bytes per pixel) and in megapixels per second
+ * @version 1.0
+ * @since 1.0
+ */
+public final class Benchmarks {
+
+    // Utility class
+    private Benchmarks(){}
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        // The command line takes precedence over these defaults
+        var commandLine = new CommandLineOptions(args);
+        var options = new OptionsBuilder()
+                .parent(commandLine)
+                .addProfiler(GCProfiler.class)
+                .timeUnit(commandLine.getTimeUnit().orElse(TimeUnit.SECONDS))
+                .warmupIterations(commandLine.getWarmupIterations().orElse(3))
+                .warmupTime(commandLine.getWarmupTime().orElse(TimeValue.seconds(1)))
+                .measurementIterations(commandLine.getMeasurementIterations().orElse(5))
+                .measurementTime(commandLine.getMeasurementTime().orElse(TimeValue.seconds(1)))
+                .forks(commandLine.getForkCount().orElse(1))
+                .build();
+        summarize(new Runner(options).run());
+    }
+
+    private static void summarize(Collection<RunResult> results){
+        Map<String, Long> pixels = new HashMap<>();
+        for(var name : ReferenceImage.NAMES){
+            var header = QOIDecoder.decodeHeader(ArrayUtils.extract(Helper.read(ReferenceImage.path(name + ".qoi")), 0, QOISpecification.HEADER_SIZE));
+            pixels.put(name, (long) header[0] * header[1]);
+        }
+
+        System.out.println();
+        System.out.printf("%-40s %-16s %12s %10s %10s %14s %12s%n",
+                "Benchmark", "Image", "ops/s", "MB/s", "Mpx/s", "alloc MB/s", "alloc B/op");
+        for(var result : results){
+            var params = result.getParams();
+            var name = params.getParam("name");
+            var primary = result.getPrimaryResult();
+            var opsPerSecond = primary.getScore();
+            var megapixels = opsPerSecond * pixels.getOrDefault(name, 0L) / 1e6;
+            var secondary = result.getSecondaryResults();
+            System.out.printf("%-40s %-16s %12.2f %10.1f %10.1f %14.1f %12.0f%n",
+                    params.getBenchmark().replace("cs107.", ""), name, opsPerSecond,
+                    megapixels * 4, megapixels,
+                    score(secondary.get("gc.alloc.rate")), score(secondary.get("gc.alloc.rate.norm")));
+        }
+    }
+
+    private static double score(Result<?> result){
+        return result == null ? Double.NaN : result.getScore();
+    }
+
+}
\ No newline at end of file
@@ -0,0 +1,88 @@
+package cs107;
+
+import java.util.Arrays;
+
+/**
+ * Baseline for DecoderBenchmark : the packed decoder core as it was before the table-driven
+ * dispatch of QOIDecoder::decodePixels, classifying every chunk with a chain of tests
+ * and hashing the pixels channel by channel
+ * @version 1.0
+ * @since 1.0
+ */
+public final class BranchingDecoder {
+
+    // Utility class
+    private BranchingDecoder(){}
+
+    /**
+     * Same as QOIDecoder::decodeData(byte[], int, int, int[])
+     * @param data (byte[]) - Array containing the chunks to decode
+     * @param start (int) - Index of the first chunk in data
+     * @param end (int) - Index after the last chunk in data
+     * @param buffer (int[]) - Buffer to fill with the ARGB pixels, row after row
+     */
+    public static void decodeData(byte[] data, int start, int end, int[] buffer){
+        int previous = QOISpecification.START_PIXEL_ARGB;
+        int run = 0;
+        int idx = start;
+        int[] hashTable = new int[64];
+        int iPixel = 0;
+
+        while(iPixel < buffer.length){
+            if(run > 0){
+                int length = Math.min(run, buffer.length - iPixel);
+                Arrays.fill(buffer, iPixel, iPixel + length, previous);
+                iPixel += length;
+                run -= length;
+                continue;
+            }
+            if(idx >= end)
+                break;
+
+            int chunk = data[idx] & 0xFF;
+            int pixel;
+            if(chunk == (QOISpecification.QOI_OP_RGB_TAG & 0xFF)){
+                pixel = (previous & 0xFF_00_00_00) | (data[idx + 1] & 0xFF) << 16 | (data[idx + 2] & 0xFF) << 8 | (data[idx + 3] & 0xFF);
+                idx += 4;
+            } else if(chunk == (QOISpecification.QOI_OP_RGBA_TAG & 0xFF)){
+                pixel = (data[idx + 4] & 0xFF) << 24 | (data[idx + 1] & 0xFF) << 16 | (data[idx + 2] & 0xFF) << 8 | (data[idx + 3] & 0xFF);
+                idx += 5;
+            } else {
+                switch(chunk & 0b11_00_00_00){
+                    case QOISpecification.QOI_OP_INDEX_TAG -> {
+                        pixel = hashTable[chunk];
+                        idx += 1;
+                    }
+                    case QOISpecification.QOI_OP_DIFF_TAG -> {
+                        pixel = QOIDecoder.addToChannels(previous, ((chunk >> 4) & 0b11) - 2, ((chunk >> 2) & 0b11) - 2, (chunk & 0b11) - 2);
+                        idx += 1;
+                    }
+                    case QOISpecification.QOI_OP_LUMA_TAG & 0xFF -> {
+                        int dg = (chunk & 0b00_11_11_11) - 32;
+                        int next = data[idx + 1] & 0xFF;
+                        pixel = QOIDecoder.addToChannels(previous, dg + (next >> 4) - 8, dg, dg + (next & 0b00_00_11_11) - 8);
+                        idx += 2;
+                    }
+                    default -> {
+                        run = (chunk & 0b00_11_11_11) + 1;
+                        hashTable[hash(previous)] = previous;
+                        idx += 1;
+                        continue;
+                    }
+                }
+            }
+            hashTable[hash(pixel)] = pixel;
+            buffer[iPixel++] = pixel;
+            previous = pixel;
+        }
+    }
+
+    private static int hash(int pixel){
+        int alpha = pixel >>> 24;
+        int red   = (pixel >>> 16) & 0xFF;
+        int green = (pixel >>> 8) & 0xFF;
+        int blue  = pixel & 0xFF;
+        return (red * 3 + green * 5 + blue * 7 + alpha * 11) & 0b00_11_11_11;
+    }
+
+}
\ No newline at end of file
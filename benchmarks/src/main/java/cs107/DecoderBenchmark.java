@@ -0,0 +1,65 @@
+package cs107;
+
+import org.openjdk.jmh.annotations.Benchmark;
+
+/**
+ * Benchmarks of the "Quite Ok Image" Decoder
+ * @version 1.0
+ * @since 1.0
+ */
+public class DecoderBenchmark {
+
+    @Benchmark
+    public byte[][] decodeData(ReferenceImage reference){
+        return QOIDecoder.decodeData(reference.body, reference.width, reference.height);
+    }
+
+    @Benchmark
+    public Helper.Image decodeQoiFile(ReferenceImage reference){
+        return QOIDecoder.decodeQoiFile(reference.qoi);
+    }
+
+    @Benchmark
+    public int[] decodeDataPacked(ReferenceImage reference, Output output){
+        int[] pixels = output.pixels(reference);
+        QOIDecoder.decodeData(reference.body, 0, reference.body.length, pixels);
+        return pixels;
+    }
+
+    @Benchmark
+    public int[] decodeDataBranching(ReferenceImage reference, Output output){
+        int[] pixels = output.pixels(reference);
+        BranchingDecoder.decodeData(reference.body, 0, reference.body.length, pixels);
+        return pixels;
+    }
+
+    @Benchmark
+    public PixelBuffer decodeDataRGBA(ReferenceImage reference){
+        PixelBuffer pixels = PixelBuffer.allocateRGBA(reference.width, reference.height);
+        QOIDecoder.decodeData(reference.body, 0, reference.body.length, pixels);
+        return pixels;
+    }
+
+    @Benchmark
+    public PixelBuffer decodeDataDirect(ReferenceImage reference){
+        PixelBuffer pixels = PixelBuffer.allocateDirect(reference.width, reference.height);
+        QOIDecoder.decodeData(reference.body, 0, reference.body.length, pixels);
+        return pixels;
+    }
+
+    @Benchmark
+    public Helper.Image decodeQoiFilePacked(ReferenceImage reference){
+        return QOIDecoder.decodeQoiFilePacked(reference.qoi);
+    }
+
+    @Benchmark
+    public Helper.Image decodeQoiFileMapped(ReferenceImage reference){
+        return QOIDecoder.decodeQoiFile(reference.mapped);
+    }
+
+    @Benchmark
+    public Helper.Image decodeQoiFileParallel(ReferenceImage reference){
+        return QOIParallelDecoder.decodeQoiFile(reference.qoi);
+    }
+
+}
\ No newline at end of file
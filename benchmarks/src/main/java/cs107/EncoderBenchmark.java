@@ -0,0 +1,44 @@
+package cs107;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+
+/**
+ * Benchmarks of the "Quite Ok Image" Encoder
+ * @version 1.0
+ * @since 1.0
+ */
+public class EncoderBenchmark {
+
+    @Benchmark
+    public byte[] encodeData(ReferenceImage reference){
+        return QOIEncoder.encodeData(reference.channels);
+    }
+
+    @Benchmark
+    public byte[] qoiFile(ReferenceImage reference){
+        return QOIEncoder.qoiFile(reference.image);
+    }
+
+    @Benchmark
+    public int encodeDataPacked(ReferenceImage reference, Output output){
+        return QOIEncoder.encodeData(reference.image.data(), output.buffer(reference), 0);
+    }
+
+    @Benchmark
+    public byte[] qoiFilePacked(ReferenceImage reference){
+        return QOIEncoder.qoiFilePacked(reference.image);
+    }
+
+    @Benchmark
+    public int encodeDataBlocks(ReferenceImage reference, Output output){
+        return QOIBlockEncoder.encodeData(reference.image.data(), output.buffer(reference), 0);
+    }
+
+    @Benchmark
+    @Fork(jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+    public int encodeDataBlocksVector(ReferenceImage reference, Output output){
+        return QOIBlockEncoder.encodeData(reference.image.data(), output.buffer(reference), 0);
+    }
+
+}
\ No newline at end of file
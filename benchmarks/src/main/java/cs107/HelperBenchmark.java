@@ -0,0 +1,23 @@
+package cs107;
+
+import org.openjdk.jmh.annotations.Benchmark;
+
+/**
+ * Benchmarks of the PNG input and output
+ * @apiNote writeImage writes to the folder "res/" of the working directory
+ * @version 1.0
+ * @since 1.0
+ */
+public class HelperBenchmark {
+
+    @Benchmark
+    public Helper.Image readImage(ReferenceImage reference){
+        return Helper.readImage(reference.pngPath);
+    }
+
+    @Benchmark
+    public void writeImage(ReferenceImage reference){
+        Helper.writeImage("benchmark_" + reference.name + ".png", reference.image);
+    }
+
+}
\ No newline at end of file
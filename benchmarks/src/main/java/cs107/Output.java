@@ -0,0 +1,40 @@
+package cs107;
+
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Output buffers reused from one invocation to the next, so that only
+ * the allocations of the benchmarked code are measured
+ * @version 1.0
+ * @since 1.0
+ */
+@State(Scope.Thread)
+public class Output {
+
+    private byte[] bytes = new byte[0];
+    private int[] pixels = new int[0];
+
+    /**
+     * @param reference (ReferenceImage) - Image to encode
+     * @return (byte[]) - Buffer large enough for any encoding of the image
+     */
+    public byte[] buffer(ReferenceImage reference){
+        int size = QOIEncoder.maxFileSize(reference.width, reference.height);
+        if(bytes.length < size)
+            bytes = new byte[size];
+        return bytes;
+    }
+
+    /**
+     * @param reference (ReferenceImage) - Image to decode
+     * @return (int[]) - Buffer with exactly one int per pixel of the image
+     */
+    public int[] pixels(ReferenceImage reference){
+        int size = reference.width * reference.height;
+        if(pixels.length != size)
+            pixels = new int[size];
+        return pixels;
+    }
+
+}
\ No newline at end of file
@@ -0,0 +1,77 @@
+package cs107;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+
+/**
+ * One image of the "references/" folder, in all the formats used by the benchmarks
+ * @apiNote The folder is looked up in the working directory and its parent,
+ * or given with the system property "references"
+ * @version 1.0
+ * @since 1.0
+ */
+@State(Scope.Benchmark)
+public class ReferenceImage {
+
+    /**
+     * Names of the images of the "references/" folder
+     */
+    public static final String[] NAMES = {
+            "EPFL", "beach", "cube", "dice", "random", "qoi_encode_test",
+            "qoi_op_diff", "qoi_op_index", "qoi_op_luma", "qoi_op_rgb", "qoi_op_rgba", "qoi_op_run"
+    };
+
+    @Param({
+            "EPFL", "beach", "cube", "dice", "random", "qoi_encode_test",
+            "qoi_op_diff", "qoi_op_index", "qoi_op_luma", "qoi_op_rgb", "qoi_op_rgba", "qoi_op_run"
+    })
+    public String name;
+
+    public String pngPath;
+    public String qoiPath;
+    public Helper.Image image;
+    public byte[][] channels;
+    // Pixels interleaved as BGR bytes, one row after the other, as in the buffers of Helper::readImage
+    public byte[] bgr;
+    public byte[] qoi;
+    public byte[] body;
+    public ByteBuffer mapped;
+    public int width;
+    public int height;
+
+    @Setup(Level.Trial)
+    public void load(){
+        pngPath = path(name + ".png");
+        qoiPath = path(name + ".qoi");
+        image = Helper.readImage(pngPath);
+        channels = ArrayUtils.imageToChannels(image.data());
+        qoi = Helper.read(qoiPath);
+        body = ArrayUtils.extract(qoi, QOISpecification.HEADER_SIZE,
+                qoi.length - QOISpecification.HEADER_SIZE - QOISpecification.QOI_EOF.length);
+        mapped = Helper.map(qoiPath);
+        width = image.data()[0].length;
+        height = image.data().length;
+        bgr = new byte[width * height * 3];
+        for(int iRow = 0; iRow < height; iRow++)
+            PixelFormat.BGR.fromARGB(image.data()[iRow], 0, width, bgr, iRow * width * 3);
+    }
+
+    /**
+     * Find a file of the "references/" folder
+     * @param file (String) - Name of the file
+     * @return (String) - Path to the file
+     */
+    public static String path(String file){
+        var folder = System.getProperty("references");
+        if(folder == null)
+            folder = new File("references").isDirectory() ? "references" : ".." + File.separator + "references";
+        return folder + File.separator + file;
+    }
+
+}
\ No newline at end of file
@@ -1,5 +1,7 @@
 package cs107;
 
+import java.util.Arrays;
+
 /**
  * Utility class to manipulate arrays.
  * @apiNote First Task of the 2022 Mini Project
@@ -135,6 +137,8 @@ public final class ArrayUtils {
      */
     public static byte[] concat(byte[] ... tabs){
         assert tabs != null : "Input is null";
+        var event = new QOIEvents.Concat();
+        event.begin();
         int resultLength = 0;
         for(byte[] tab : tabs){
             assert tab != null : "One of the inner arrays of input is null";
@@ -151,6 +155,12 @@ public final class ArrayUtils {
             }
         }
 
+        event.end();
+        if(event.shouldCommit()){
+            event.arrays = tabs.length;
+            event.bytes = resultLength;
+            event.commit();
+        }
         return result;
     }
 
@@ -227,18 +237,22 @@ public final class ArrayUtils {
         assert input[0] != null : "One of the inner arrays is null";
         int height = input.length;
         int width = input[0].length;
+        assert (long) height * width <= Integer.MAX_VALUE - 8 : "Image is too large for one array of pixels";
+        var event = new QOIEvents.Conversion();
+        event.begin();
 
         byte[][] result = new byte[height*width][];
+        byte[] row = new byte[width * 4];
 
         for(int iLig = 0; iLig < input.length; iLig++){
             assert input[iLig] != null : "One of the inner arrays is null";
             assert input[iLig].length == width : "Two of the inner arrays does not have the same length";
-            for(int iCol = 0; iCol < input[iLig].length; iCol++){
-                byte[] currARGB = fromInt(input[iLig][iCol]);
-                byte[] currRGBA = new byte[]{currARGB[1], currARGB[2], currARGB[3], currARGB[0]};
-                result[iLig * width + iCol] = currRGBA;
+            PixelFormat.RGBA.fromARGB(input[iLig], 0, width, row, 0);
+            for(int iCol = 0; iCol < width; iCol++){
+                result[iLig * width + iCol] = Arrays.copyOfRange(row, iCol * 4, iCol * 4 + 4);
             }
         }
+        QOIEvents.converted(event, "imageToChannels", width, height);
         return result;
     }
 
@@ -259,7 +273,9 @@ public final class ArrayUtils {
     public static int[][] channelsToImage(byte[][] input, int height, int width){
         assert input != null : "Input is null";
         assert height >= 0 && width >= 0 : "Height or width is invalid";
-        assert input.length == height * width : "Input's length differs from width * height";
+        assert input.length == (long) height * width : "Input's length differs from width * height";
+        var event = new QOIEvents.Conversion();
+        event.begin();
 
         int[][] result = new int[height][width];
 
@@ -267,11 +283,10 @@ public final class ArrayUtils {
             for(int iCol = 0; iCol < width; iCol++){
                 assert input[iLig * width + iCol] != null : "One of the pixel is null";
                 assert input[iLig * width + iCol].length == 4 : "One of the pixel is invalid";
-                byte[] currRGBA = input[iLig * width + iCol];
-                byte[] currARGB = new byte[]{currRGBA[3], currRGBA[0], currRGBA[1], currRGBA[2]};
-                result[iLig][iCol] = toInt(currARGB);
+                result[iLig][iCol] = PixelFormat.RGBA.toARGB(input[iLig * width + iCol], 0);
             }
         }
+        QOIEvents.converted(event, "channelsToImage", width, height);
         return result;
     }
 }
\ No newline at end of file
@@ -0,0 +1,282 @@
+package cs107;
+
+import javax.imageio.ImageIO;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Convert all the "PNG" and "QOI" files of a directory tree, in parallel
+ * @apiNote Every ".png" file is encoded to ".qoi" and every ".qoi" file is decoded to ".png",
+ * in the same relative location under the output directory. The outputs are written
+ * atomically, and a file that cannot be converted only produces a failed Result
+ * @version 1.0
+ * @since 1.0
+ */
+public final class BatchTranscoder {
+
+    // Utility class
+    private BatchTranscoder(){}
+
+    /**
+     * Estimated memory used per pixel while converting (image buffer and ARGB pixels)
+     */
+    private static final int BYTES_PER_PIXEL = 8;
+
+    /**
+     * Outcome of the conversion of one file
+     * @param input (Path) - Converted file
+     * @param output (Path) - Generated file
+     * @param inputSize (long) - Size of the input in bytes
+     * @param outputSize (long) - Size of the output in bytes, 0 if the conversion failed
+     * @param pixels (long) - Number of pixels of the image, 0 if unknown
+     * @param nanos (long) - Duration of the conversion, without the time spent waiting for memory
+     * @param error (String) - Why the conversion failed, null if it succeeded
+     */
+    public record Result(Path input, Path output, long inputSize, long outputSize, long pixels, long nanos, String error){
+
+        /**
+         * @return (boolean) - true if the conversion failed
+         */
+        public boolean failed(){
+            return error != null;
+        }
+
+        /**
+         * @return (double) - Size of the "PNG" file relative to the "QOI" file (See Main::ratio)
+         */
+        public double ratio(){
+            boolean encoding = isPng(input);
+            long png = encoding ? inputSize : outputSize;
+            long qoi = encoding ? outputSize : inputSize;
+            return Main.ratio(png, qoi);
+        }
+    }
+
+    /**
+     * Outcome of a whole batch
+     * @param results (List) - One result per converted file, in the order of the directory walk
+     * @param nanos (long) - Duration of the whole batch
+     */
+    public record Report(List<Result> results, long nanos){
+
+        /**
+         * @return (long) - Number of failed conversions
+         */
+        public long failures(){
+            return results.stream().filter(Result::failed).count();
+        }
+
+        /**
+         * Print every result and the aggregated throughput
+         * @param out (PrintStream) - Where to print
+         */
+        public void print(PrintStream out){
+            long bytes = 0;
+            long pixels = 0;
+            for(var result : results){
+                if(result.failed()){
+                    out.printf("FAILED %s : %s%n", result.input(), result.error());
+                    continue;
+                }
+                bytes += result.inputSize();
+                pixels += result.pixels();
+                out.printf("%s -> %s : %d px, %d ms, ratio %.1f%%%n", result.input(), result.output(),
+                        result.pixels(), result.nanos() / 1_000_000, result.ratio());
+            }
+            double seconds = nanos / 1e9;
+            out.printf("%d files, %d failed, %.2f s, %.1f MB/s read, %.1f Mpx/s%n",
+                    results.size(), failures(), seconds, bytes / 1e6 / seconds, pixels / 1e6 / seconds);
+        }
+    }
+
+    // ============================================================================================
+    // ===================================== BATCH API ============================================
+    // ============================================================================================
+
+    /**
+     * Convert all the files of a directory tree
+     * @param inputRoot (Path) - Directory to walk
+     * @param outputRoot (Path) - Directory where to write the converted files
+     * @param threads (int) - Number of conversions running at the same time
+     * @param memoryBudget (long) - Maximum memory, in bytes, used by the images being converted.
+     * An image larger than the budget is converted alone
+     * @return (Report) - Result of every conversion, a failed conversion is reported in its Result
+     * @throws AssertionError if a path is null, threads or memoryBudget are not positive
+     * @throws VirtualMachineError if a conversion runs out of memory or stack, the batch then stops
+     */
+    public static Report transcode(Path inputRoot, Path outputRoot, int threads, long memoryBudget){
+        assert inputRoot != null && outputRoot != null : "Path is null";
+        assert threads > 0 : "Number of threads is invalid";
+        assert memoryBudget > 0 : "Memory budget is invalid";
+
+        List<Path> files;
+        try(Stream<Path> walk = Files.walk(inputRoot)){
+            files = walk.filter(Files::isRegularFile)
+                    .filter(path -> isPng(path) || isQoi(path))
+                    .sorted()
+                    .collect(Collectors.toList());
+        } catch (IOException e){
+            return Helper.fail("An error occurred while listing : \"%s\"%n", inputRoot);
+        }
+
+        // One permit per KiB of pixel memory
+        int budget = (int) Math.min(Integer.MAX_VALUE, Math.max(1, memoryBudget >> 10));
+        var memory = new Semaphore(budget);
+        long start = System.nanoTime();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Path> outputs = new ArrayList<>();
+            List<Future<Result>> futures = new ArrayList<>();
+            for(var file : files){
+                var output = outputRoot.resolve(inputRoot.relativize(file).toString().replaceAll("\\.[^.]*$", isPng(file) ? ".qoi" : ".png"));
+                outputs.add(output);
+                futures.add(executor.submit(() -> convert(file, output, memory, budget)));
+            }
+            List<Result> results = new ArrayList<>();
+            for(int i = 0; i < futures.size(); i++){
+                try {
+                    results.add(futures.get(i).get());
+                } catch (ExecutionException e){
+                    // A failed conversion never stops the batch, unless the virtual machine itself is broken
+                    if(e.getCause() instanceof VirtualMachineError error)
+                        throw error;
+                    results.add(failure(files.get(i), outputs.get(i), 0, 0, 0, e.getCause()));
+                }
+            }
+            return new Report(results, System.nanoTime() - start);
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            return Helper.fail("Batch interrupted%n");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Convert the files of a directory tree and print the report
+     * @param args (String[]) - input directory, output directory, [threads], [memory budget in MiB]
+     */
+    public static void main(String[] args){
+        if(args.length < 2){
+            System.out.println("Usage : BatchTranscoder <input directory> <output directory> [threads] [memory MiB]");
+            return;
+        }
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        long memory = args.length > 3 ? Long.parseLong(args[3]) << 20 : Runtime.getRuntime().maxMemory() / 2;
+        transcode(Path.of(args[0]), Path.of(args[1]), threads, memory).print(System.out);
+    }
+
+    // ============================================================================================
+
+    private static boolean isPng(Path path){
+        return path.getFileName().toString().toLowerCase().endsWith(".png");
+    }
+
+    private static boolean isQoi(Path path){
+        return path.getFileName().toString().toLowerCase().endsWith(".qoi");
+    }
+
+    private static Result convert(Path input, Path output, Semaphore memory, int budget){
+        long start = System.nanoTime();
+        long inputSize = 0;
+        long pixels = 0;
+        try {
+            inputSize = Files.size(input);
+            pixels = isPng(input) ? pngPixels(input) : qoiPixels(input);
+            int permits = (int) Math.min(budget, (pixels * BYTES_PER_PIXEL + 1023) >> 10);
+            memory.acquire(permits);
+            // The wait for memory depends on the other conversions, only the conversion itself is timed
+            start = System.nanoTime();
+            try {
+                Files.createDirectories(output.toAbsolutePath().getParent());
+                if(isPng(input))
+                    pngToQoi(input, output);
+                else
+                    qoiToPng(input, output);
+            } finally {
+                memory.release(permits);
+            }
+            return new Result(input, output, inputSize, Files.size(output), pixels, System.nanoTime() - start, null);
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            return new Result(input, output, inputSize, 0, pixels, System.nanoTime() - start, "interrupted");
+        } catch (VirtualMachineError e){
+            throw e;
+        } catch (Exception | Error e){
+            return failure(input, output, inputSize, pixels, System.nanoTime() - start, e);
+        }
+    }
+
+    private static Result failure(Path input, Path output, long inputSize, long pixels, long nanos, Throwable e){
+        var message = e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage().strip();
+        return new Result(input, output, inputSize, 0, pixels, nanos, message);
+    }
+
+    private static long pngPixels(Path input) throws IOException {
+        try(var stream = ImageIO.createImageInputStream(input.toFile())){
+            var readers = ImageIO.getImageReaders(stream);
+            if(!readers.hasNext())
+                throw new IOException("Unsupported image format");
+            var reader = readers.next();
+            try {
+                reader.setInput(stream);
+                return (long) reader.getWidth(0) * reader.getHeight(0);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static long qoiPixels(Path input) throws IOException {
+        try(var stream = Files.newInputStream(input)){
+            var header = stream.readNBytes(QOISpecification.HEADER_SIZE);
+            if(header.length != QOISpecification.HEADER_SIZE)
+                throw new IOException("Header is truncated");
+            var decoded = QOIDecoder.decodeHeader(header);
+            return (long) decoded[0] * decoded[1];
+        }
+    }
+
+    private static void pngToQoi(Path input, Path output) throws IOException {
+        var image = Helper.readImage(input.toString());
+        var data = image.data();
+        var channel = new FileOutput(output, true, false);
+        try {
+            var encoder = new QOIStreamEncoder(channel, data[0].length, data.length,
+                    image.channels(), image.color_space(), QOIStreamEncoder.DEFAULT_BUFFER_SIZE);
+            for(var row : data){
+                encoder.writeRow(row);
+            }
+            encoder.close();
+        } catch (RuntimeException | Error e){
+            channel.discard(e);
+            throw e;
+        }
+    }
+
+    private static void qoiToPng(Path input, Path output) throws IOException {
+        var image = Helper.decodeToImage(Helper.map(input.toString()));
+        var channel = new FileOutput(output, true, false);
+        try {
+            if(!ImageIO.write(image, "png", Channels.newOutputStream(channel)))
+                throw new IOException("No PNG writer available");
+            channel.close();
+        } catch (IOException | RuntimeException | Error e){
+            channel.discard(e);
+            throw e;
+        }
+    }
+
+}
\ No newline at end of file
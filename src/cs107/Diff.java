@@ -1,6 +1,21 @@
 package cs107;
 
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
 
 /**
  * Utility class used to simulate the Unix command "diff"
@@ -52,12 +67,200 @@ public final class Diff {
         diff(b1, b2);
     }
 
+    /**
+     * Contiguous range of differing bytes
+     * @param start (long) - Index of the first differing byte
+     * @param end (long) - Index after the last differing byte
+     */
+    public record Range(long start, long end){
+
+        /**
+         * @return (long) - Number of bytes of the range
+         */
+        public long length(){
+            return end - start;
+        }
+    }
+
+    /**
+     * Outcome of the comparison of two files with the same relative path
+     * @param path (Path) - Relative path of the files
+     * @param size_1 (long) - Size of the first file, -1 if it does not exist
+     * @param size_2 (long) - Size of the second file, -1 if it does not exist
+     * @param ranges (List) - Differing ranges, empty if the files are equal or one of them does not exist
+     * @param error (String) - Why the files could not be compared, null if they were
+     */
+    public record FileDiff(Path path, long size_1, long size_2, List<Range> ranges, String error){
+
+        /**
+         * @return (boolean) - true if both files exist and have the same content
+         */
+        public boolean same(){
+            return error == null && size_1 >= 0 && size_1 == size_2 && ranges.isEmpty();
+        }
+    }
+
+    /**
+     * Find the ranges of differing bytes of two files, mapped in memory
+     * @apiNote The files are compared by windows of WINDOW_SIZE bytes with ByteBuffer::mismatch,
+     * which compares several bytes at a time, so equal parts cost almost nothing. The files of at least
+     * MAP_THRESHOLD bytes are mapped and never copied on the heap. Two differing bytes separated by less than
+     * GAP equal bytes belong to the same range. If the sizes differ, the bytes only present in the
+     * longer file form the last range, or end the previous one if less than GAP equal bytes separate them
+     * @param file_1 (Path) - Path of the first file
+     * @param file_2 (Path) - Path of the second file
+     * @return (List) - Differing ranges, in increasing order
+     * @throws AssertionError if one of the paths is null
+     */
+    public static List<Range> ranges(Path file_1, Path file_2){
+        assert file_1 != null;
+        assert file_2 != null;
+        try(var c1 = FileChannel.open(file_1, StandardOpenOption.READ);
+            var c2 = FileChannel.open(file_2, StandardOpenOption.READ)){
+            return ranges(c1, c2, WINDOW_SIZE, MAP_THRESHOLD);
+        } catch (IOException e){
+            return Helper.fail("An error occurred while comparing : \"%s\" and \"%s\"%n", file_1, file_2);
+        }
+    }
+
+    /**
+     * Compare two files and print in the Terminal their differing ranges,
+     * each with the bytes around it in both files
+     * @param file_1 (String) - Path of the first file
+     * @param file_2 (String) - Path of the second file
+     * @throws AssertionError if one of the paths is null
+     */
+    public static void diffRanges(String file_1, String file_2){
+        assert file_1 != null;
+        assert file_2 != null;
+        var ranges = ranges(Path.of(file_1), Path.of(file_2));
+        var out = new StringBuilder();
+        try(var c1 = FileChannel.open(Path.of(file_1), StandardOpenOption.READ);
+            var c2 = FileChannel.open(Path.of(file_2), StandardOpenOption.READ)){
+            out.append("========================================== DIFF ==========================================").append(System.lineSeparator());
+            out.append(String.format("== File 1 : '%s', size = %d bytes %n", file_1, c1.size()));
+            out.append(String.format("== File 2 : '%s', size = %d bytes %n", file_2, c2.size()));
+            out.append("==========================================================================================").append(System.lineSeparator());
+            if(ranges.isEmpty())
+                out.append("== WARNING : The two inputs have the same content").append(System.lineSeparator());
+            for(var range : ranges){
+                appendRange(out, range, c1, c2);
+            }
+            out.append("========================================= END DIFF =======================================").append(System.lineSeparator());
+        } catch (IOException e){
+            Helper.fail("An error occurred while comparing : \"%s\" and \"%s\"%n", file_1, file_2);
+        }
+        System.out.print(out);
+    }
+
+    /**
+     * Compare all the files of two directory trees, in parallel
+     * @param dir_1 (Path) - First directory
+     * @param dir_2 (Path) - Second directory
+     * @param threads (int) - Number of comparisons running at the same time
+     * @return (List) - One result per relative path found in one of the directories, sorted by path
+     * @throws AssertionError if a path is null or threads is not positive
+     */
+    public static List<FileDiff> diffDirectories(Path dir_1, Path dir_2, int threads){
+        assert dir_1 != null && dir_2 != null : "Path is null";
+        assert threads > 0 : "Number of threads is invalid";
+
+        var paths = new TreeSet<Path>();
+        for(var dir : new Path[]{dir_1, dir_2}){
+            try(Stream<Path> walk = Files.walk(dir)){
+                walk.filter(Files::isRegularFile).map(dir::relativize).forEach(paths::add);
+            } catch (IOException e){
+                return Helper.fail("An error occurred while listing : \"%s\"%n", dir);
+            }
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<FileDiff>> futures = new ArrayList<>();
+            for(var path : paths){
+                futures.add(executor.submit(() -> compare(path, dir_1.resolve(path), dir_2.resolve(path))));
+            }
+            List<FileDiff> results = new ArrayList<>();
+            for(var future : futures){
+                results.add(future.get());
+            }
+            return results;
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            return Helper.fail("Comparison interrupted%n");
+        } catch (ExecutionException e){
+            return Helper.fail("Unexpected failure : %s%n", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Print the result of Diff::diffDirectories, one line per file
+     * @param results (List) - Results to print
+     * @param out (PrintStream) - Where to print
+     * @throws AssertionError if one of the arguments is null
+     */
+    public static void printDirectories(List<FileDiff> results, PrintStream out){
+        assert results != null && out != null;
+        long same = 0;
+        for(var result : results){
+            if(result.error() != null)
+                out.printf("FAILED %s : %s%n", result.path(), result.error());
+            else if(result.size_1() < 0 || result.size_2() < 0)
+                out.printf("ONLY IN %d %s%n", result.size_1() < 0 ? 2 : 1, result.path());
+            else if(result.same())
+                same++;
+            else {
+                long bytes = result.ranges().stream().mapToLong(Range::length).sum();
+                out.printf("DIFFER %s : %d ranges, %d bytes, first at [%06X]%n",
+                        result.path(), result.ranges().size(), bytes, result.ranges().get(0).start());
+            }
+        }
+        out.printf("%d files, %d identical%n", results.size(), same);
+    }
+
+    /**
+     * Compare the files of two directory trees and print the differing ones
+     * @param args (String[]) - first directory, second directory, [threads]
+     */
+    public static void main(String[] args){
+        if(args.length < 2){
+            System.out.println("Usage : Diff <first directory> <second directory> [threads]");
+            return;
+        }
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        printDirectories(diffDirectories(Path.of(args[0]), Path.of(args[1]), threads), System.out);
+    }
+
     // ============================================================================================
 
 
     // Hide default constructor
     private Diff(){}
 
+    /**
+     * Number of bytes of the files mapped and compared at once
+     */
+    static final int WINDOW_SIZE = 1 << 26;
+
+    /**
+     * Size from which the files are mapped. The smaller ones are read on the heap, because a mapping
+     * is only released once garbage collected and a process can only hold a limited number of them
+     */
+    static final int MAP_THRESHOLD = 1 << 20;
+
+    /**
+     * Minimum number of equal bytes separating two ranges
+     */
+    static final int GAP = 8;
+
+    /**
+     * Number of bytes printed around a range, and maximum number of bytes printed of a range
+     */
+    private static final int CONTEXT = 20;
+    private static final int MAX_SHOWN = 160;
+
     private static void showHeader(String file_1, String file_2, byte[] stream_f1, byte[] stream_f2){
         System.out.println("========================================== DIFF ==========================================");
         System.out.printf("== File 1 : '%s', size = %d bytes %n", file_1, stream_f1.length);
@@ -83,6 +286,116 @@ public final class Diff {
         }
     }
 
+    /**
+     * Find the differing ranges of two open files (See Diff::ranges), by windows of the given size.
+     * The files of at least mapThreshold bytes are mapped, the others are read
+     */
+    static List<Range> ranges(FileChannel c1, FileChannel c2, int windowSize, long mapThreshold) throws IOException {
+        long common = Math.min(c1.size(), c2.size());
+        List<Range> ranges = new ArrayList<>();
+        // Start of the range being built (-1 if none) and index of its last differing byte
+        long open = -1;
+        long last = -1;
+        for(long base = 0; base < common; base += windowSize){
+            int size = (int) Math.min(windowSize, common - base);
+            ByteBuffer w1 = window(c1, base, size, mapThreshold);
+            ByteBuffer w2 = window(c2, base, size, mapThreshold);
+            int i = 0;
+            while(i < size){
+                if(open < 0){
+                    int m = w1.slice(i, size - i).mismatch(w2.slice(i, size - i));
+                    if(m < 0)
+                        break;
+                    open = last = base + i + m;
+                    i += m + 1;
+                } else if(w1.get(i) != w2.get(i)){
+                    last = base + i;
+                    i++;
+                } else {
+                    // Length of the equal bytes starting at i, up to the end of the window
+                    int m = w1.slice(i, size - i).mismatch(w2.slice(i, size - i));
+                    int equal = m < 0 ? size - i : m;
+                    if(base + i + equal - last - 1 >= GAP){
+                        ranges.add(new Range(open, last + 1));
+                        open = -1;
+                    }
+                    i += equal;
+                }
+            }
+        }
+        long end = Math.max(c1.size(), c2.size());
+        // The bytes only present in the longer file extend the open range, unless GAP equal bytes separate them
+        if(open >= 0 && end > common && common - last - 1 < GAP)
+            ranges.add(new Range(open, end));
+        else {
+            if(open >= 0)
+                ranges.add(new Range(open, last + 1));
+            if(end > common)
+                ranges.add(new Range(common, end));
+        }
+        return ranges;
+    }
+
+    private static ByteBuffer window(FileChannel channel, long base, int size, long mapThreshold) throws IOException {
+        if(channel.size() >= mapThreshold)
+            return channel.map(FileChannel.MapMode.READ_ONLY, base, size);
+        var window = ByteBuffer.allocate(size);
+        while(window.hasRemaining()){
+            if(channel.read(window, base + window.position()) < 0)
+                break;
+        }
+        return window.clear();
+    }
+
+    private static FileDiff compare(Path path, Path file_1, Path file_2){
+        long size_1 = -1;
+        long size_2 = -1;
+        try {
+            size_1 = Files.isRegularFile(file_1) ? Files.size(file_1) : -1;
+            size_2 = Files.isRegularFile(file_2) ? Files.size(file_2) : -1;
+            if(size_1 < 0 || size_2 < 0)
+                return new FileDiff(path, size_1, size_2, List.of(), null);
+            try(var c1 = FileChannel.open(file_1, StandardOpenOption.READ);
+                var c2 = FileChannel.open(file_2, StandardOpenOption.READ)){
+                return new FileDiff(path, size_1, size_2, ranges(c1, c2, WINDOW_SIZE, MAP_THRESHOLD), null);
+            }
+        } catch (IOException e){
+            var message = e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage().strip();
+            return new FileDiff(path, size_1, size_2, List.of(), message);
+        }
+    }
+
+    /**
+     * Append a range and the bytes around it in both files, aligned on lines of 10 bytes
+     */
+    private static void appendRange(StringBuilder out, Range range, FileChannel c1, FileChannel c2) throws IOException {
+        out.append("== Range [");
+        Hexdump.appendHex(out, range.start(), 6).append(", ");
+        Hexdump.appendHex(out, range.end(), 6).append(") : ").append(range.length()).append(" bytes");
+        if(range.length() > MAX_SHOWN)
+            out.append(", the first ").append(MAX_SHOWN).append(" are shown");
+        out.append(System.lineSeparator());
+        long from = Math.max(0, range.start() - CONTEXT) / 10 * 10;
+        long to = Math.min(range.start() + MAX_SHOWN, range.end()) + CONTEXT;
+        appendBytes(out, "File 1", c1, from, to);
+        appendBytes(out, "File 2", c2, from, to);
+    }
+
+    private static void appendBytes(StringBuilder out, String name, FileChannel channel, long from, long to) throws IOException {
+        to = Math.min(to, channel.size());
+        out.append("-- ").append(name).append(System.lineSeparator());
+        if(from >= to)
+            return;
+        var bytes = new byte[(int) (to - from)];
+        var buffer = ByteBuffer.wrap(bytes);
+        while(buffer.hasRemaining()){
+            if(channel.read(buffer, from + buffer.position()) < 0)
+                break;
+        }
+        for(int i = 0; i < bytes.length; i += 10)
+            Hexdump.appendLine(out, from + i, bytes, i, Math.min(10, bytes.length - i));
+    }
+
     private static void showEnd(){
         System.out.println("========================================= END DIFF =======================================");
     }
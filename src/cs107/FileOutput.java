@@ -0,0 +1,243 @@
+package cs107;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Buffered channel writing a file to the disk
+ * @apiNote Small writes are gathered in a direct buffer reused by all the outputs opened
+ * on the same thread, large writes go straight to the file. In atomic mode the content is
+ * written to a temporary file renamed on close, so the target is either the old or the
+ * complete new file. A write that fails must be followed by discard instead of close.
+ * In durable mode the content, then the rename, are forced to the storage device on close.
+ * Every output closed successfully commits a cs107.FileWrite event (See QOIEvents)
+ * @version 1.0
+ * @since 1.0
+ */
+public final class FileOutput implements WritableByteChannel {
+
+    /**
+     * Size of the staging buffer
+     */
+    public static final int BUFFER_SIZE = 1 << 16;
+
+    // Staging buffer released by the last output closed on each thread, null while it is in use
+    private static final ThreadLocal<ByteBuffer> STAGING = new ThreadLocal<>();
+
+    private final FileChannel channel;
+    private final Path target;
+    private final Path temporary;
+    private final boolean durable;
+    private final QOIEvents.FileWrite event = new QOIEvents.FileWrite();
+    private long written = 0;
+    private ByteBuffer staging;
+
+    /**
+     * Open a file for writing, truncating it if it exists
+     * @param target (Path) - Path of the file
+     * @param atomic (boolean) - Write to a temporary file renamed to target on close
+     * @param durable (boolean) - Force the content and the rename to the storage device on close
+     * @throws IOException if the file cannot be created
+     */
+    FileOutput(Path target, boolean atomic, boolean durable) throws IOException {
+        event.begin();
+        this.target = target;
+        this.durable = durable;
+        if(atomic){
+            // Created like the target would be, so that the umask applies and the renamed file
+            // gets the usual permissions (Files::createTempFile would make it readable by its owner only)
+            Path parent = target.toAbsolutePath().getParent();
+            FileChannel created = null;
+            Path path = null;
+            while(created == null){
+                path = parent.resolve(target.getFileName() + "."
+                        + Long.toUnsignedString(ThreadLocalRandom.current().nextLong(), 36) + ".tmp");
+                try {
+                    created = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW);
+                } catch (FileAlreadyExistsException e){
+                    // Another output drew the same name, draw again
+                }
+            }
+            this.temporary = path;
+            this.channel = created;
+        } else {
+            this.temporary = null;
+            this.channel = FileChannel.open(target,
+                    StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        }
+        ByteBuffer cached = STAGING.get();
+        STAGING.set(null);
+        this.staging = cached != null ? cached.clear() : ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+
+    // ==================================================================================
+    // ================================= WRITING METHODS ================================
+    // ==================================================================================
+
+    /**
+     * Write the remaining bytes of the buffer
+     * @param source (ByteBuffer) - Bytes to write
+     * @return (int) - Number of written bytes (all the remaining bytes)
+     * @throws IOException if the write fails or the output is closed
+     */
+    @Override
+    public int write(ByteBuffer source) throws IOException {
+        if(staging == null)
+            throw new ClosedChannelException();
+        int length = source.remaining();
+        written += length;
+        if(length >= staging.capacity()){
+            flushStaging();
+            while(source.hasRemaining()){
+                channel.write(source);
+            }
+            return length;
+        }
+        if(length > staging.remaining())
+            flushStaging();
+        staging.put(source);
+        return length;
+    }
+
+    /**
+     * Write several parts one after the other in a single gathering write,
+     * without concatenating them first
+     * @param parts (ByteBuffer ...) - Parts to write, from their position to their limit
+     * @throws IOException if the write fails or the output is closed
+     */
+    public void write(ByteBuffer ... parts) throws IOException {
+        if(staging == null)
+            throw new ClosedChannelException();
+        flushStaging();
+        long remaining = 0;
+        for(ByteBuffer part : parts){
+            remaining += part.remaining();
+        }
+        written += remaining;
+        while(remaining > 0){
+            remaining -= channel.write(parts);
+        }
+    }
+
+    /**
+     * @return (boolean) - true until the output is closed
+     */
+    @Override
+    public boolean isOpen(){
+        return staging != null;
+    }
+
+    /**
+     * Flush the buffered bytes, force them to the device in durable mode,
+     * close the file and move it to its target in atomic mode
+     * @throws IOException if one of the steps fails. The temporary file is then deleted
+     */
+    @Override
+    public void close() throws IOException {
+        if(staging == null)
+            return;
+        try(channel){
+            flushStaging();
+            if(durable)
+                channel.force(true);
+        } catch (IOException e){
+            if(temporary != null)
+                Files.deleteIfExists(temporary);
+            throw e;
+        } finally {
+            STAGING.set(staging);
+            staging = null;
+        }
+        if(temporary != null)
+            commit();
+        event.end();
+        if(event.shouldCommit()){
+            event.path = target.toString();
+            event.bytes = written;
+            event.commit();
+        }
+    }
+
+    /**
+     * Close the output without keeping what was written: the temporary file in atomic mode,
+     * the target itself otherwise, is deleted. In atomic mode the target keeps its old content
+     * @apiNote To be called instead of close when the content could not be completely written
+     * @throws IOException if the file cannot be closed or deleted
+     */
+    public void discard() throws IOException {
+        if(staging == null)
+            return;
+        STAGING.set(staging);
+        staging = null;
+        try {
+            channel.close();
+        } finally {
+            Files.deleteIfExists(temporary != null ? temporary : target);
+        }
+    }
+
+    /**
+     * Discard the output after a failure, without hiding the failure
+     * @param failure (Throwable) - Why the content could not be written, any error
+     * of the discard is added to its suppressed exceptions
+     */
+    void discard(Throwable failure){
+        try {
+            discard();
+        } catch (IOException e){
+            failure.addSuppressed(e);
+        }
+    }
+
+    // ==================================================================================
+
+    private void flushStaging() throws IOException {
+        staging.flip();
+        while(staging.hasRemaining()){
+            channel.write(staging);
+        }
+        staging.clear();
+    }
+
+    private void commit() throws IOException {
+        try {
+            Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e){
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e){
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+        if(durable)
+            forceDirectory(target.toAbsolutePath().getParent());
+    }
+
+    /**
+     * Force the entries of a directory to the storage device, so that a rename in it survives a crash
+     * @param directory (Path) - Directory to force
+     * @throws IOException if the directory cannot be forced
+     */
+    private static void forceDirectory(Path directory) throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(directory, StandardOpenOption.READ);
+        } catch (IOException e){
+            // Some platforms (Windows) cannot open a directory, a rename is then as durable as they make it
+            return;
+        }
+        try(channel){
+            channel.force(true);
+        }
+    }
+
+}
\ No newline at end of file
@@ -2,10 +2,20 @@ package cs107;
 
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
 
 /**
@@ -42,22 +52,67 @@ public final class Helper {
 
     /**
      * Record to store all the information of a given image
-     * @param data (int[][]) - ARGB stored pixels
+     * @apiNote The pixels can be stored in any backend of PixelBuffer, Image::data
+     * gives them in the int[][] format
+     * @param pixels (PixelBuffer) - ARGB stored pixels
      * @param channels (byte) - number of channels
      * @param color_space (byte) - color space
      */
-    public record Image(int[][] data, byte channels, byte color_space){
+    public record Image(PixelBuffer pixels, byte channels, byte color_space){
+
+        /**
+         * Image stored in one array per row
+         * @param data (int[][]) - ARGB stored pixels, shared with the image
+         * @param channels (byte) - number of channels
+         * @param color_space (byte) - color space
+         */
+        public Image(int[][] data, byte channels, byte color_space){
+            this(PixelBuffer.wrap(data), channels, color_space);
+        }
+
+        /**
+         * ARGB pixels of the image, one array per row
+         * @apiNote The rows of an image stored as an int[][] are returned as they are,
+         * the pixels of the other backends are copied
+         * @return (int[][]) - ARGB stored pixels
+         */
+        public int[][] data() {
+            int[][] rows = pixels.array();
+            return rows != null ? rows : pixels.toArray();
+        }
+
         @Override
         public boolean equals(Object obj) {
             if (obj instanceof Image im){
-                return Arrays.deepEquals(data, im.data) && (channels == im.channels) && (color_space == im.color_space);
+                return (channels == im.channels) && (color_space == im.color_space) && samePixels(pixels, im.pixels);
             }else
                 return false;
         }
 
         @Override
         public int hashCode() {
-            return Arrays.deepHashCode(data);
+            // Same value as Arrays.deepHashCode(data())
+            int[] row = new int[pixels.width()];
+            int hash = 1;
+            for(int y = 0; y < pixels.height(); y++){
+                pixels.getRow(y, row, 0);
+                hash = 31 * hash + Arrays.hashCode(row);
+            }
+            return hash;
+        }
+
+        private static boolean samePixels(PixelBuffer pixels_1, PixelBuffer pixels_2){
+            if(pixels_1.width() != pixels_2.width() || pixels_1.height() != pixels_2.height())
+                return false;
+            int[] row_1 = new int[pixels_1.width()];
+            int[] row_2 = new int[pixels_2.width()];
+            for(int y = 0; y < pixels_1.height(); y++){
+                pixels_1.getRow(y, row_1, 0);
+                pixels_2.getRow(y, row_2, 0);
+                if(!Arrays.equals(row_1, row_2))
+                    return false;
+            }
+            return true;
         }
     }
 
@@ -85,6 +140,19 @@ public final class Helper {
         return new Image(data, channels, colorSpace);
     }
 
+    /**
+     * Generate a new Image stored in a pixel buffer, without copying it
+     * @param pixels (PixelBuffer) - ARGB stored pixels, of any backend
+     * @param channels (byte) - number of channels
+     * @param colorSpace (byte) - color space
+     * @return (Image) - The corresponding Image
+     */
+    public static Image generateImage(PixelBuffer pixels, byte channels, byte colorSpace){
+        assert pixels != null;
+        assert pixels.width() > 0 && pixels.height() > 0;
+        return new Image(pixels, channels, colorSpace);
+    }
+
     /**
      * Read and decode an image from the disk. The image can be one of
      * the standard formats (png, jpeg ...)
@@ -92,17 +160,22 @@ public final class Helper {
      * @return (Image) - The corresponding Image
      */
     public static Image readImage(String path) {
+        var event = new QOIEvents.ImageRead();
+        event.begin();
         try{
             var io = ImageIO.read(new File(path));
-            var width  = io.getWidth();
-            var height = io.getHeight();
-            var array = new int[height][width];
-            for(var x = 0; x < height;++x){
-                for(var y = 0 ;y < width; ++y){
-                    array[x][y] = io.getRGB(y, x);
-                }
-            }
+            if(io == null)
+                return fail("Unsupported image format : \"%s\"%n", path);
+            var array = readPixels(io);
             var nbrChannels = (byte) (io.getColorModel().hasAlpha() ? 4 : 3);
+            event.end();
+            if(event.shouldCommit()){
+                event.path = path;
+                event.width = io.getWidth();
+                event.height = io.getHeight();
+                event.channels = nbrChannels;
+                event.commit();
+            }
             return new Image(array, nbrChannels, (byte) 0);
         }catch (IOException e){
             return fail("An error occurred while trying to read from : \"%s\"%n", path);
@@ -110,31 +183,192 @@ public final class Helper {
 
     }
 
+    /**
+     * Extract the ARGB pixels of an image, row by row.
+     * 8 bits interleaved and packed sRGB rasters are read directly from their data buffer,
+     * other color models go through BufferedImage::getRGB
+     * @param io (BufferedImage) - Image to read
+     * @return (int[][]) - ARGB pixels of the image
+     */
+    private static int[][] readPixels(BufferedImage io){
+        var width  = io.getWidth();
+        var height = io.getHeight();
+        var array = new int[height][width];
+        var raster = io.getRaster();
+        var colorModel = io.getColorModel();
+        var direct = raster.getParent() == null
+                && raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0
+                && colorModel.getColorSpace().isCS_sRGB() && !colorModel.isAlphaPremultiplied();
+
+        if(direct && colorModel instanceof ComponentColorModel
+                && raster.getSampleModel() instanceof PixelInterleavedSampleModel model
+                && raster.getDataBuffer() instanceof DataBufferByte buffer
+                && buffer.getNumBanks() == 1 && (model.getNumBands() == 3 || model.getNumBands() == 4)){
+            var data = buffer.getData();
+            var offsets = model.getBandOffsets();
+            var pixelStride = model.getPixelStride();
+            var hasAlpha = model.getNumBands() == 4;
+            var format = formatOf(offsets, pixelStride);
+            for(var x = 0; x < height; ++x){
+                var row = array[x];
+                var idx = buffer.getOffset() + x * model.getScanlineStride();
+                if(format != null){
+                    format.toARGB(data, idx, row, 0, width);
+                    continue;
+                }
+                for(var y = 0; y < width; ++y, idx += pixelStride){
+                    var alpha = hasAlpha ? data[idx + offsets[3]] & 0xFF : 0xFF;
+                    row[y] = alpha << 24 | (data[idx + offsets[0]] & 0xFF) << 16
+                            | (data[idx + offsets[1]] & 0xFF) << 8 | (data[idx + offsets[2]] & 0xFF);
+                }
+            }
+            return array;
+        }
+
+        if(direct && colorModel instanceof DirectColorModel packed
+                && raster.getSampleModel() instanceof SinglePixelPackedSampleModel model
+                && raster.getDataBuffer() instanceof DataBufferInt buffer && buffer.getNumBanks() == 1
+                && packed.getRedMask() == 0x00_FF_00_00 && packed.getGreenMask() == 0x00_00_FF_00
+                && packed.getBlueMask() == 0x00_00_00_FF
+                && (packed.getAlphaMask() == 0xFF_00_00_00 || packed.getAlphaMask() == 0)){
+            var data = buffer.getData();
+            var opaque = packed.getAlphaMask() == 0 ? 0xFF_00_00_00 : 0;
+            for(var x = 0; x < height; ++x){
+                var row = array[x];
+                var idx = buffer.getOffset() + x * model.getScanlineStride();
+                for(var y = 0; y < width; ++y){
+                    row[y] = data[idx + y] | opaque;
+                }
+            }
+            return array;
+        }
+
+        for(var x = 0; x < height; ++x){
+            io.getRGB(0, x, width, 1, array[x], 0, width);
+        }
+        return array;
+    }
+
+    /**
+     * Layout of the pixels of an interleaved raster, if it is one of PixelFormat
+     * @param offsets (int[]) - Offsets of the red, green, blue and alpha bands in a pixel
+     * @param pixelStride (int) - Number of bytes of a pixel
+     * @return (PixelFormat) - The layout, or null if the pixels are not tightly packed in one of them
+     */
+    private static PixelFormat formatOf(int[] offsets, int pixelStride){
+        if(pixelStride != offsets.length)
+            return null;
+        if(Arrays.equals(offsets, new int[]{0, 1, 2, 3}))
+            return PixelFormat.RGBA;
+        if(Arrays.equals(offsets, new int[]{3, 2, 1, 0}))
+            return PixelFormat.ABGR;
+        if(Arrays.equals(offsets, new int[]{0, 1, 2}))
+            return PixelFormat.RGB;
+        if(Arrays.equals(offsets, new int[]{2, 1, 0}))
+            return PixelFormat.BGR;
+        return null;
+    }
+
     /**
      * Write an image as "PNG" in the disk. This function writes to the folder called "res/"
      * @param path (String) - Relative or Absolute path to the image
      * @param image (Image) - Image to store
      */
     public static void writeImage(String path, Image image) {
-        int type = switch (image.channels){
-            case 3 -> BufferedImage.TYPE_3BYTE_BGR;
-            case 4 -> BufferedImage.TYPE_4BYTE_ABGR;
-            default -> fail("Cannot write this image, image.channels() == %d", image.channels);
-        };
-        var buffer = new BufferedImage(image.data[0].length, image.data.length, type);
-        for(var x = 0; x < buffer.getHeight(); ++x){
-            for(var y = 0 ; y < buffer.getWidth(); ++y){
-                buffer.setRGB(y, x, image.data[x][y]);
-            }
+        var pixels = image.pixels();
+        var buffer = createImageBuffer(pixels.width(), pixels.height(), image.channels);
+        var row = new int[pixels.width()];
+        for(var x = 0; x < pixels.height(); ++x){
+            pixels.getRow(x, row, 0);
+            setRow(buffer, x, row);
         }
+        writeImage(path, buffer);
+    }
+
+    /**
+     * Write an image buffer as "PNG" in the disk. This function writes to the folder called "res/"
+     * @param path (String) - Relative or Absolute path to the image
+     * @param buffer (BufferedImage) - Image to store, usually filled with Helper::setRow
+     */
+    public static void writeImage(String path, BufferedImage buffer) {
         var abs_path = res_folder + File.separator + path;
+        var event = new QOIEvents.ImageWrite();
+        event.begin();
         try {
             ImageIO.write(buffer, "png", new File(abs_path));
+            event.end();
+            if(event.shouldCommit()){
+                event.path = abs_path;
+                event.width = buffer.getWidth();
+                event.height = buffer.getHeight();
+                event.channels = buffer.getColorModel().getNumComponents();
+                event.commit();
+            }
         }catch (IOException e){
             fail("An error occurred while trying to write to : \"%s\"%n", abs_path);
         }
     }
 
+    /**
+     * Create an empty image buffer whose pixels are stored as interleaved bytes
+     * (BGR for 3 channels, ABGR for 4 channels)
+     * @param width (int) - Width of the image
+     * @param height (int) - Height of the image
+     * @param channels (byte) - Number of channels
+     * @return (BufferedImage) - The image buffer
+     */
+    public static BufferedImage createImageBuffer(int width, int height, byte channels) {
+        int type = switch (channels){
+            case 3 -> BufferedImage.TYPE_3BYTE_BGR;
+            case 4 -> BufferedImage.TYPE_4BYTE_ABGR;
+            default -> fail("Cannot write this image, image.channels() == %d", channels);
+        };
+        return new BufferedImage(width, height, type);
+    }
+
+    /**
+     * Store a row of ARGB pixels in an image buffer created with Helper::createImageBuffer,
+     * writing directly in its data buffer
+     * @param buffer (BufferedImage) - The image buffer
+     * @param x (int) - Index of the row
+     * @param pixels (int[]) - ARGB pixels of the row
+     */
+    public static void setRow(BufferedImage buffer, int x, int[] pixels) {
+        assert buffer.getType() == BufferedImage.TYPE_3BYTE_BGR || buffer.getType() == BufferedImage.TYPE_4BYTE_ABGR;
+        assert pixels.length == buffer.getWidth();
+        var data = ((DataBufferByte) buffer.getRaster().getDataBuffer()).getData();
+        var format = buffer.getType() == BufferedImage.TYPE_3BYTE_BGR ? PixelFormat.BGR : PixelFormat.ABGR;
+        format.fromARGB(pixels, 0, pixels.length, data, x * pixels.length * format.bytesPerPixel());
+    }
+
+    /**
+     * Decode a "Quite Ok Image" file into an image buffer, storing each row directly in it
+     * (See QOIPushDecoder and Helper::setRow)
+     * @param content (ByteBuffer) - Content of the file, from its position to its limit
+     * @return (BufferedImage) - The decoded image, ready to be written with Helper::writeImage
+     * @throws AssertionError if content is null or corrupted
+     * @throws RuntimeException if the file is truncated (See Helper::fail)
+     */
+    public static BufferedImage decodeToImage(ByteBuffer content) {
+        assert content != null : "Content is null";
+        var image = new BufferedImage[1];
+        var decoder = new QOIPushDecoder(new QOIPushDecoder.RowListener() {
+            @Override
+            public void onHeader(int width, int height, byte channels, byte colorSpace){
+                image[0] = createImageBuffer(width, height, channels);
+            }
+
+            @Override
+            public void onRow(int row, int[] pixels){
+                setRow(image[0], row, pixels);
+            }
+        });
+        decoder.feed(content);
+        if(!decoder.isDone())
+            fail("File is truncated%n");
+        return image[0];
+    }
+
     // ==================================================================================
     // ======================== BINARY FILE MANIPULATION METHODS ========================
     // ==================================================================================
@@ -145,26 +379,100 @@ public final class Helper {
      * @return (byte[]) - File content as stored in memory
      */
     public static byte[] read(String path) {
+        var event = new QOIEvents.FileRead();
+        event.begin();
         try(var input = new FileInputStream(path)){
-            return input.readAllBytes();
+            byte[] content = input.readAllBytes();
+            event.end();
+            if(event.shouldCommit()){
+                event.path = path;
+                event.bytes = content.length;
+                event.commit();
+            }
+            return content;
         } catch (IOException e){
             return fail("An error occurred while trying to read from : \"%s\"%n", path);
         }
     }
 
+    /**
+     * Map a file stored in the disk in memory, without copying it on the heap
+     * @apiNote The content is read lazily from the page cache. The mapping stays valid
+     * until the buffer is garbage collected, even once the file is closed
+     * @param path (String) - Relative or Absolute path to the file
+     * @return (MappedByteBuffer) - Read-only view of the file content
+     */
+    public static MappedByteBuffer map(String path) {
+        var event = new QOIEvents.FileRead();
+        event.begin();
+        try(var channel = FileChannel.open(Path.of(path), StandardOpenOption.READ)){
+            if(channel.size() > Integer.MAX_VALUE)
+                return fail("File is too large to be mapped in one buffer : \"%s\"%n", path);
+            var content = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            event.end();
+            if(event.shouldCommit()){
+                event.path = path;
+                event.bytes = content.capacity();
+                event.commit();
+            }
+            return content;
+        } catch (IOException e){
+            return fail("An error occurred while trying to map : \"%s\"%n", path);
+        }
+    }
+
     /**
      * Write a file to the disk. This function writes to the folder called "res/"
      * @param path (String) - Relative or Absolute path to the file
      * @param content (byte[]) - Content of the file.
      */
     public static void write(String path, byte[] content){
+        write(path, false, false, ByteBuffer.wrap(content));
+    }
+
+    /**
+     * Write a file to the disk from several parts, in a single gathering write.
+     * This function writes to the folder called "res/"
+     * @param path (String) - Relative or Absolute path to the file
+     * @param atomic (boolean) - Write to a temporary file renamed once complete
+     * @param durable (boolean) - Force the content to the storage device before returning
+     * @param parts (ByteBuffer ...) - Content of the file, one part after the other
+     * @throws RuntimeException if the write fails (See Helper::fail), the file then keeps
+     * its old content in atomic mode and is deleted otherwise
+     */
+    public static void write(String path, boolean atomic, boolean durable, ByteBuffer ... parts){
+        var output = openOutput(path, atomic, durable);
+        try {
+            output.write(parts);
+        }catch (IOException e){
+            // Only a complete content may replace the file
+            output.discard(e);
+            fail("An error occurred while trying to write to : \"%s\"%n", path);
+        }catch (RuntimeException | Error e){
+            output.discard(e);
+            throw e;
+        }
+        try {
+            output.close();
+        }catch (IOException e){
+            fail("An error occurred while trying to write to : \"%s\"%n", path);
+        }
+    }
+
+    /**
+     * Open a file of the disk for writing, for instance to stream an encoded image to it.
+     * This function writes to the folder called "res/"
+     * @param path (String) - Relative or Absolute path to the file
+     * @param atomic (boolean) - Write to a temporary file renamed once the output is closed
+     * @param durable (boolean) - Force the content to the storage device when the output is closed
+     * @return (FileOutput) - Buffered channel to the file
+     */
+    public static FileOutput openOutput(String path, boolean atomic, boolean durable){
         var abs_path = res_folder + File.separator + path;
-        try(var output = new FileOutputStream(abs_path)){
-            for (var b : content){
-                output.write(b);
-            }
+        try {
+            return new FileOutput(Path.of(abs_path), atomic, durable);
         }catch (IOException e){
-            fail("An error occurred while trying to write to : \"%s\"%n", abs_path);
+            return fail("An error occurred while trying to write to : \"%s\"%n", abs_path);
         }
     }
 
@@ -44,24 +44,12 @@ public final class Hexdump {
         assert binary != null : "(hexdump) You've used a null array, cannot dump the null array";
         assert  0 <= start_address && start_address <= end_address;
         assert end_address < binary.length;
-        var mod_length = (end_address - start_address + 1) % 10;
-        var div_length = (end_address - start_address + 1) / 10;
-        System.out.println("==========================================================================================");
-        for(var i = 0; i < div_length; i++)
-            System.out.print(dump_10bytes(start_address + i * 10, binary));
-        System.out.print(switch (mod_length){
-            case 1 -> dump_1byte(start_address + div_length * 10, binary);
-            case 2 -> dump_2bytes(start_address + div_length * 10, binary);
-            case 3 -> dump_3bytes(start_address + div_length * 10, binary);
-            case 4 -> dump_4bytes(start_address + div_length * 10, binary);
-            case 5 -> dump_5bytes(start_address + div_length * 10, binary);
-            case 6 -> dump_6bytes(start_address + div_length * 10, binary);
-            case 7 -> dump_7bytes(start_address + div_length * 10, binary);
-            case 8 -> dump_8bytes(start_address + div_length * 10, binary);
-            case 9 -> dump_9bytes(start_address + div_length * 10, binary);
-            default -> ""; // Dead code
-        });
-        System.out.println("==========================================================================================");
+        var line = new StringBuilder();
+        line.append("==========================================================================================").append(System.lineSeparator());
+        for(var address = start_address; address <= end_address; address += 10)
+            appendLine(line, address, binary, address, Math.min(10, end_address - address + 1));
+        line.append("==========================================================================================").append(System.lineSeparator());
+        System.out.print(line);
     }
 
     // ============================================================================================
@@ -69,111 +57,57 @@ public final class Hexdump {
     // Hide default constructor
     private Hexdump(){}
 
-    private static String dump_1byte(int addr, byte[] b){
-        var fmt = "%06X : %02X | %c |%n";
-        return String.format(fmt, addr, b[addr], display_char(b[addr]));
-    }
-    private static String dump_2bytes(int addr, byte[] b){
-        var fmt = "%06X : %02X %02X | %c%c |%n";
-        return String.format(fmt, addr, b[addr], b[addr + 1],
-                display_char(b[addr]),
-                display_char(b[addr + 1]));
-    }
-    private static String dump_3bytes(int addr, byte[] b){
-        var fmt = "%06X : %02X %02X %02X | %c%c%c |%n";
-        return String.format(fmt, addr, b[addr], b[addr+1], b[addr+2],
-                display_char(b[addr]),
-                display_char(b[addr+1]),
-                display_char(b[addr+2]));
-    }
-
-    private static String dump_4bytes(int addr, byte[] b){
-        var fmt = "%06X : %02X %02X %02X %02X | %c%c%c%c |%n";
-        return String.format(fmt, addr, b[addr], b[addr+1],b[addr+2], b[addr+3],
-                display_char(b[addr]),
-                display_char(b[addr+1]),
-                display_char(b[addr+2]),
-                display_char(b[addr+3]));
-    }
-
-    private static String dump_5bytes(int addr, byte[] b){
-        var fmt = "%06X : %02X %02X %02X %02X %02X | %c%c%c%c%c |%n";
-        return String.format(fmt, addr, b[addr], b[addr+1],b[addr+2], b[addr+3],b[addr+4],
-                display_char(b[addr]),
-                display_char(b[addr+1]),
-                display_char(b[addr+2]),
-                display_char(b[addr+3]),
-                display_char(b[addr+4]));
-    }
-
-    private static String dump_6bytes(int addr, byte[] b){
-        var fmt = "%06X : %02X %02X %02X %02X %02X %02X  | %c%c%c%c%c%c |%n";
-        return String.format(fmt, addr, b[addr], b[addr+1],b[addr+2], b[addr+3],b[addr+4], b[addr+5],
-                display_char(b[addr]),
-                display_char(b[addr+1]),
-                display_char(b[addr+2]),
-                display_char(b[addr+3]),
-                display_char(b[addr+4]),
-                display_char(b[addr+5]));
-    }
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
 
-    private static String dump_7bytes(int addr, byte[] b){
-        var fmt = "%06X : %02X %02X %02X %02X %02X %02X %02X  | %c%c%c%c%c%c%c |%n";
-        return String.format(fmt, addr, b[addr], b[addr+1],b[addr+2], b[addr+3],b[addr+4], b[addr+5],b[addr+6],
-                display_char(b[addr]),
-                display_char(b[addr+1]),
-                display_char(b[addr+2]),
-                display_char(b[addr+3]),
-                display_char(b[addr+4]),
-                display_char(b[addr+5]),
-                display_char(b[addr+6]));
-    }
-
-    private static String dump_8bytes(int addr, byte[] b){
-        var fmt = "%06X : %02X %02X %02X %02X %02X %02X %02X %02X  | %c%c%c%c%c%c%c%c |%n";
-        return String.format(fmt, addr, b[addr], b[addr+1],b[addr+2], b[addr+3],b[addr+4], b[addr+5],b[addr+6], b[addr+7],
-                display_char(b[addr]),
-                display_char(b[addr+1]),
-                display_char(b[addr+2]),
-                display_char(b[addr+3]),
-                display_char(b[addr+4]),
-                display_char(b[addr+5]),
-                display_char(b[addr+6]),
-                display_char(b[addr+7]));
+    /**
+     * Append one line of the dump, in the format of Hexdump::hexdump
+     * @param line (StringBuilder) - Where to append the line
+     * @param address (long) - Address printed at the beginning of the line
+     * @param b (byte[]) - Array containing the bytes
+     * @param from (int) - Index of the first byte of the line
+     * @param count (int) - Number of bytes of the line, from 1 to 10
+     */
+    static void appendLine(StringBuilder line, long address, byte[] b, int from, int count){
+        appendHex(line, address, 6).append(" : ");
+        appendBytes(line, b, from, count);
+        // Historically, the lines of 6 to 8 bytes have an extra space before the characters
+        line.append(count >= 6 && count <= 8 ? "  | " : " | ");
+        for(var i = 0; i < count; i++)
+            line.append(display_char(b[from + i]));
+        line.append(" |").append(System.lineSeparator());
     }
 
-    private static String dump_9bytes(int addr, byte[] b){
-        var fmt = "%06X : %02X %02X %02X %02X %02X %02X %02X %02X %02X | %c%c%c%c%c%c%c%c%c |%n";
-        return String.format(fmt, addr, b[addr], b[addr+1],b[addr+2], b[addr+3],b[addr+4], b[addr+5],b[addr+6],
-                b[addr+7], b[addr+8],
-                display_char(b[addr]),
-                display_char(b[addr+1]),
-                display_char(b[addr+2]),
-                display_char(b[addr+3]),
-                display_char(b[addr+4]),
-                display_char(b[addr+5]),
-                display_char(b[addr+6]),
-                display_char(b[addr+7]),
-                display_char(b[addr+8]));
+    /**
+     * Append bytes in hexadecimal, separated by spaces
+     * @param line (StringBuilder) - Where to append the bytes
+     * @param b (byte[]) - Array containing the bytes
+     * @param from (int) - Index of the first byte
+     * @param count (int) - Number of bytes
+     * @return (StringBuilder) - The line
+     */
+    static StringBuilder appendBytes(StringBuilder line, byte[] b, int from, int count){
+        for(var i = 0; i < count; i++){
+            if(i > 0)
+                line.append(' ');
+            appendHex(line, b[from + i] & 0xFF, 2);
+        }
+        return line;
     }
 
-    private static String dump_10bytes(int addr, byte[] b){
-        var fmt = "%06X : %02X %02X %02X %02X %02X %02X %02X %02X %02X %02X | %c%c%c%c%c%c%c%c%c%c |%n";
-        return String.format(fmt, addr, b[addr], b[addr+1],b[addr+2], b[addr+3],b[addr+4], b[addr+5],b[addr+6],
-                b[addr+7], b[addr+8],b[addr+9],
-                display_char(b[addr]),
-                display_char(b[addr+1]),
-                display_char(b[addr+2]),
-                display_char(b[addr+3]),
-                display_char(b[addr+4]),
-                display_char(b[addr+5]),
-                display_char(b[addr+6]),
-                display_char(b[addr+7]),
-                display_char(b[addr+8]),
-                display_char(b[addr+9]));
+    /**
+     * Append a number in upper case hexadecimal, padded with zeros
+     * @param line (StringBuilder) - Where to append the number
+     * @param value (long) - Positive number
+     * @param digits (int) - Minimum number of digits
+     * @return (StringBuilder) - The line
+     */
+    static StringBuilder appendHex(StringBuilder line, long value, int digits){
+        var shift = Math.max(digits, (67 - Long.numberOfLeadingZeros(value)) / 4) * 4;
+        while((shift -= 4) >= 0)
+            line.append(HEX_DIGITS[(int) (value >>> shift) & 0xF]);
+        return line;
     }
 
-
     private static char display_char(byte c){
         return Character.isISOControl(c) ? '.' : (char) c;
     }
@@ -1,6 +1,24 @@
 package cs107;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import javax.imageio.ImageIO;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 
 /**
  * Main entry point of the program.
@@ -49,6 +67,7 @@ public final class Main {
         assert testPartition();
         assert testImageToChannels();
         assert testChannelsToImage();
+        assert testPixelFormats();
 
         // ========== Test QOIEncoder ==========
         assert testQoiHeader();
@@ -59,6 +78,10 @@ public final class Main {
         assert testQoiOpLuma();
         assert testQoiOpRun();
         assert testEncodeData();
+        assert testEncodeDataPacked();
+        assert testStreamEncoder();
+        assert testAtomicEncoder();
+        assert testBlockEncoder();
 
         // ========== Test QOIDecoder ==========
         assert testDecodeHeader();
@@ -68,6 +91,40 @@ public final class Main {
         assert testDecodeQoiOpLuma();
         assert testDecodeQoiOpRun();
         assert testDecodeData();
+        assert testDecodeDataPacked();
+        assert testDecodeBuffer();
+        assert testStreamDecoder();
+        assert testPushDecoder();
+        assert testPixelBuffers();
+        assert testPixelFile();
+
+        // ========== Test QOIMetrics ==========
+        assert testMetrics();
+
+        // ========== Test QOIEvents ==========
+        assert testEvents();
+
+        // ========== Test QOIInspector ==========
+        assert testInspector();
+
+        // ========== Test Diff ==========
+        assert testDiffRanges();
+
+        // ========== Test QOIPixelDiff ==========
+        assert testPixelDiff();
+
+        // ========== Test BatchTranscoder ==========
+        assert testBatchTranscoder();
+
+        // ========== Test TiledQOI ==========
+        assert testTiledRoundTrip();
+        assert testTiledRegion();
+
+        // ========== Test QOIIndex ==========
+        assert testIndexedDecode();
+
+        // ========== Test QOIParallelDecoder ==========
+        assert testParallelDecode();
 
         System.out.println("All the tests passes. Congratulations");
     }
@@ -83,9 +140,13 @@ public final class Main {
         // Read a PNG file
         var inputImage = Helper.readImage(inputFile);
         // Encode the Image to QOI
-        var outputFileContent = QOIEncoder.qoiFile(inputImage);
-        // Write in binary mode the file content to 'output_file'
-        Helper.write(outputFile, outputFileContent);
+        var data = inputImage.data();
+        var header = QOIEncoder.qoiHeader(inputImage);
+        var body = new byte[QOIEncoder.maxFileSize(data[0].length, data.length)];
+        var bodyLength = QOIEncoder.encodeData(data, body, 0);
+        // Write in binary mode the file content to 'output_file', without concatenating its parts
+        Helper.write(outputFile, true, false,
+                ByteBuffer.wrap(header), ByteBuffer.wrap(body, 0, bodyLength), ByteBuffer.wrap(QOISpecification.QOI_EOF));
     }
 
     /**
@@ -94,10 +155,10 @@ public final class Main {
      * @param outputFile (String) - The path where to store the generated "PNG" Image
      */
     public static void qoiToPng(String inputFile, String outputFile){
-        // Read in binary mode the file 'input_file'
-        var inputFileContent = Helper.read(inputFile);
-        // Decode the file using the 'QOI' decoder
-        var computedImage = QOIDecoder.decodeQoiFile(inputFileContent);
+        // Map in memory the file 'input_file'
+        var inputFileContent = Helper.map(inputFile);
+        // Decode the file using the 'QOI' decoder, storing each row directly in the image buffer
+        var computedImage = Helper.decodeToImage(inputFileContent);
         // Write an image to 'output_file'
         Helper.writeImage(outputFile, computedImage);
     }
@@ -109,6 +170,16 @@ public final class Main {
      * @return (int) - The ratio
      */
     public static double ratio(int png, int qoi){
+        return ratio((long) png, qoi);
+    }
+
+    /**
+     * Computes the ratio of files whose sizes do not fit in an int
+     * @param png (long) - Size of the "PNG" file
+     * @param qoi (long) - Size of the "QOI" file
+     * @return (double) - The ratio
+     */
+    public static double ratio(long png, long qoi){
         return 100d * png / qoi;
     }
 
@@ -201,6 +272,33 @@ public final class Main {
         return Arrays.deepEquals(output, input);
     }
 
+    @SuppressWarnings("unused")
+    private static boolean testPixelFormats(){
+        int[] pixels = {0x11223344, 0xFF00FF80, 0x80FFFFFF};
+        byte[] rgba = {0x22, 0x33, 0x44, 0x11, 0, -1, -128, -1, -1, -1, -1, -128};
+        byte[] bgr = {0x44, 0x33, 0x22, -128, -1, 0, -1, -1, -1};
+        byte[] abgr = new byte[12];
+        byte[] rgb = new byte[9];
+        int[] decoded = new int[3];
+
+        PixelFormat.RGBA.toARGB(rgba, 0, decoded, 0, 3);
+        boolean result = Arrays.equals(pixels, decoded);
+        PixelFormat.ABGR.fromARGB(pixels, 0, 3, abgr, 0);
+        PixelFormat.ABGR.toARGB(abgr, 0, decoded, 0, 3);
+        result &= Arrays.equals(pixels, decoded) && abgr[0] == 0x11 && abgr[1] == 0x44 && abgr[3] == 0x22;
+        byte[] encoded = new byte[12];
+        PixelFormat.RGBA.fromARGB(pixels, 0, 3, encoded, 0);
+        result &= Arrays.equals(rgba, encoded);
+        // Without alpha, the pixels are read back opaque
+        PixelFormat.BGR.fromARGB(pixels, 0, 3, encoded, 0);
+        result &= Arrays.equals(bgr, Arrays.copyOf(encoded, 9));
+        PixelFormat.RGB.fromARGB(pixels, 0, 3, rgb, 0);
+        PixelFormat.RGB.toARGB(rgb, 0, decoded, 0, 3);
+        for(int i = 0; i < 3; i++)
+            result &= decoded[i] == (pixels[i] | 0xFF000000);
+        return result;
+    }
+
     // ============================================================================================
     // ============================== QOIEncoder examples =========================================
     // ============================================================================================
@@ -269,6 +367,113 @@ public final class Main {
         return Arrays.equals(expected, encoding);
     }
 
+    @SuppressWarnings("unused")
+    private static boolean testEncodeDataPacked(){
+        int[] pixels = {0xFF000000, 0xFF000000, 0xFF000000, 0xFF00FF00, 0xFFEEECEE, 0xFF000000, 0xFF646464, 0x5A5A5A5A};
+        byte[] expected = {-62, 102, -115, -103, -76, 102, -2, 100, 100, 100, -1, 90, 90, 90, 90};
+        byte[] output = new byte[pixels.length * 5];
+        int length = QOIEncoder.encodeData(pixels, output, 0);
+        return Arrays.equals(expected, Arrays.copyOf(output, length));
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testStreamEncoder(){
+        int[][] pixels = {{0xFF000000, 0xFF000000, 0xFF000000, 0xFF00FF00}, {0xFFEEECEE, 0xFF000000, 0xFF646464, 0x5A5A5A5A}};
+        byte[] data = {-62, 102, -115, -103, -76, 102, -2, 100, 100, 100, -1, 90, 90, 90, 90};
+        byte[] expected = ArrayUtils.concat(
+                QOIEncoder.qoiHeader(4, 2, QOISpecification.RGBA, QOISpecification.sRGB), data, QOISpecification.QOI_EOF);
+        var output = new ByteArrayOutputStream();
+        try(var encoder = new QOIStreamEncoder(output, 4, 2, QOISpecification.RGBA, QOISpecification.sRGB)){
+            encoder.writeRow(pixels[0]);
+            encoder.writeRow(pixels[1]);
+        }
+        return Arrays.equals(expected, output.toByteArray());
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testAtomicEncoder(){
+        int[][] pixels = {{0xFF000000, 0xFF102030, 0xFF102030}, {0xFF646464, 0xFF000000, 0x5A5A5A5A}};
+        var image = Helper.generateImage(pixels, QOISpecification.RGBA, QOISpecification.sRGB);
+        byte[] expected = QOIEncoder.qoiFile(image);
+        QOIStreamEncoder.encode(image, "atomic.qoi", true, false);
+        Path path = Path.of("res", "atomic.qoi");
+        boolean result = Arrays.equals(expected, Helper.read(path.toString()));
+        // A row shrunk once the image is created stops the encoding after the first row,
+        // the complete file must stay in place
+        int[][] invalid = {pixels[0].clone(), pixels[1].clone()};
+        var shrunk = Helper.generateImage(invalid, QOISpecification.RGB, QOISpecification.sRGB);
+        invalid[1] = new int[]{0xFF000000};
+        try {
+            QOIStreamEncoder.encode(shrunk, "atomic.qoi", true, false);
+            result = false;
+        } catch (RuntimeException | AssertionError e){
+            result &= Arrays.equals(expected, Helper.read(path.toString()));
+        }
+        // Closing an encoder with missing rows discards its output
+        try {
+            var encoder = new QOIStreamEncoder(Helper.openOutput("atomic.qoi", true, false), 3, 2,
+                    QOISpecification.RGB, QOISpecification.sRGB, QOIStreamEncoder.DEFAULT_BUFFER_SIZE);
+            encoder.writeRow(pixels[0]);
+            encoder.close();
+            result = false;
+        } catch (RuntimeException e){
+            result &= Arrays.equals(expected, Helper.read(path.toString()));
+        }
+        // Even to a stream, without assertions, a truncated image is never written silently
+        var stream = new ByteArrayOutputStream();
+        try {
+            var encoder = new QOIStreamEncoder(stream, 3, 2, QOISpecification.RGB, QOISpecification.sRGB);
+            encoder.writeRow(pixels[0]);
+            encoder.close();
+            result = false;
+        } catch (RuntimeException e){
+            result &= e.getMessage().startsWith("Some rows of the image were not written");
+        }
+        try(var files = Files.list(path.getParent())){
+            result &= files.noneMatch(file -> file.getFileName().toString().startsWith("atomic.qoi") && file.toString().endsWith(".tmp"));
+            // A file written atomically, durable or not, gets the permissions of one written in place
+            Helper.write("atomic.qoi", true, true, ByteBuffer.wrap(expected));
+            Helper.write("plain.qoi", false, false, ByteBuffer.wrap(expected));
+            Path plain = Path.of("res", "plain.qoi");
+            result &= Arrays.equals(expected, Helper.read(path.toString()));
+            if(Files.getFileStore(path).supportsFileAttributeView("posix"))
+                result &= Files.getPosixFilePermissions(path).equals(Files.getPosixFilePermissions(plain));
+            Files.delete(plain);
+            Files.delete(path);
+        } catch (IOException e){
+            return false;
+        }
+        return result;
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testBlockEncoder(){
+        int[][] pixels = new int[3][600];
+        for(int iRow = 0; iRow < pixels.length; iRow++){
+            for(int iCol = 0; iCol < pixels[iRow].length; iCol++){
+                // Runs across blocks and rows, small and large differences, wrapping channels and alpha changes
+                int step = iCol < 300 ? iCol / 100 : iCol % 7 * 3 - 9;
+                pixels[iRow][iCol] = (iCol % 97 == 0 ? 0x80 : 0xFF) << 24 | (step * 0x01_03_05 + iRow * 0x40_00_FF) & 0xFF_FF_FF;
+            }
+        }
+        byte[] expected = new byte[QOIEncoder.maxFileSize(600, 3)];
+        byte[] encoding = new byte[expected.length];
+        int expectedLength = QOIEncoder.encodeData(pixels, expected, 0);
+        int length = QOIBlockEncoder.encodeData(pixels, encoding, 0);
+        boolean result = Arrays.equals(expected, 0, expectedLength, encoding, 0, length);
+        if(QOIBlockEncoder.VECTORIZED){
+            // The Vector API and the SWAR differences of any pixels are the same
+            var random = new Random(107);
+            int[] row = random.ints(QOIBlockEncoder.BLOCK_SIZE).toArray();
+            int[] vector = new int[QOIBlockEncoder.BLOCK_SIZE];
+            int[] swar = new int[QOIBlockEncoder.BLOCK_SIZE];
+            QOIBlockEncoder.classify(row, 0, 0xFF000000, vector, true);
+            QOIBlockEncoder.classify(row, 0, 0xFF000000, swar, false);
+            result &= Arrays.equals(vector, swar);
+        }
+        return result;
+    }
+
     // ============================================================================================
     // ============================== QOIDecoder examples =========================================
     // ============================================================================================
@@ -340,4 +545,517 @@ public final class Main {
         return Arrays.deepEquals(expected, QOIDecoder.decodeData(encoding, 4, 2));
     }
 
+    @SuppressWarnings("unused")
+    private static boolean testDecodeDataPacked(){
+        byte[] encoding = {-62, 102, -115, -103, -76, 102, -2, 100, 100, 100, -1, 90, 90, 90, 90};
+        int[] expected = {0xFF000000, 0xFF000000, 0xFF000000, 0xFF00FF00, 0xFFEEECEE, 0xFF000000, 0xFF646464, 0x5A5A5A5A};
+        int[] buffer = new int[8];
+        QOIDecoder.decodeData(encoding, 0, encoding.length, buffer);
+        return Arrays.equals(expected, buffer);
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testDecodeBuffer(){
+        // Mostly QOI_OP_RGB chunks, so that the chunks are spread over several windows
+        int[][] pixels = new int[300][300];
+        var random = new Random(16);
+        for(int[] row : pixels){
+            for(int iCol = 0; iCol < row.length; iCol++){
+                row[iCol] = iCol % 50 < 40 ? 0xFF000000 | random.nextInt(1 << 24) : 0x80102030;
+            }
+        }
+        var image = Helper.generateImage(pixels, QOISpecification.RGBA, QOISpecification.sRGB);
+        byte[] file = QOIEncoder.qoiFile(image);
+        var direct = ByteBuffer.allocateDirect(file.length).put(file).flip();
+        return file.length > 4 * QOIDecoder.WINDOW_SIZE && image.equals(QOIDecoder.decodeQoiFile(direct))
+                && image.equals(QOIDecoder.decodeQoiFile(ByteBuffer.wrap(file)));
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testStreamDecoder(){
+        byte[] data = {-62, 102, -115, -103, -76, 102, -2, 100, 100, 100, -1, 90, 90, 90, 90};
+        byte[] file = ArrayUtils.concat(
+                QOIEncoder.qoiHeader(4, 2, QOISpecification.RGBA, QOISpecification.sRGB), data, QOISpecification.QOI_EOF);
+        int[][] expected = {{0xFF000000, 0xFF000000, 0xFF000000, 0xFF00FF00}, {0xFFEEECEE, 0xFF000000, 0xFF646464, 0x5A5A5A5A}};
+        boolean result;
+        try(var decoder = new QOIStreamDecoder(new ByteArrayInputStream(file))){
+            result = decoder.width() == 4 && decoder.height() == 2
+                    && Arrays.equals(expected[0], decoder.readRow())
+                    && Arrays.equals(expected[1], decoder.readRow())
+                    && !decoder.hasNextRow();
+        }
+        // The second row is cut, the decoder must stop instead of waiting for more bytes
+        byte[] truncated = Arrays.copyOf(file, QOISpecification.HEADER_SIZE + 8);
+        try(var decoder = new QOIStreamDecoder(new ByteArrayInputStream(truncated))){
+            result &= Arrays.equals(expected[0], decoder.readRow());
+            decoder.readRow();
+            return false;
+        } catch (RuntimeException e){
+            return result;
+        }
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testPushDecoder(){
+        byte[] data = {-62, 102, -115, -103, -76, 102, -2, 100, 100, 100, -1, 90, 90, 90, 90};
+        byte[] file = ArrayUtils.concat(
+                QOIEncoder.qoiHeader(4, 2, QOISpecification.RGBA, QOISpecification.sRGB), data, QOISpecification.QOI_EOF);
+        int[][] expected = {{0xFF000000, 0xFF000000, 0xFF000000, 0xFF00FF00}, {0xFFEEECEE, 0xFF000000, 0xFF646464, 0x5A5A5A5A}};
+        int[][] rows = new int[2][];
+        var decoder = new QOIPushDecoder((row, pixels) -> rows[row] = pixels.clone());
+        // Feed the file one byte at a time, splitting every chunk
+        for(byte b : file){
+            decoder.feed(ByteBuffer.wrap(new byte[]{b}));
+        }
+        boolean result = decoder.isDone() && Arrays.deepEquals(expected, rows);
+
+        var image = Helper.decodeToImage(ByteBuffer.wrap(file));
+        result &= Arrays.equals(expected[1], image.getRGB(0, 1, 4, 1, null, 0, 4));
+        // A truncated file fails even without assertions, whether its header arrived or not
+        for(int length : new int[]{file.length - 1, QOISpecification.HEADER_SIZE - 1}){
+            try {
+                Helper.decodeToImage(ByteBuffer.wrap(file, 0, length));
+                result = false;
+            } catch (RuntimeException e){
+                result &= e.getMessage().startsWith("File is truncated");
+            }
+        }
+        return result;
+    }
+
+    // ============================================================================================
+    // =============================== TiledQOI examples ==========================================
+    // ============================================================================================
+
+    @SuppressWarnings("unused")
+    private static boolean testPixelBuffers(){
+        int[][] pixels = new int[6][10];
+        for(int iRow = 0; iRow < pixels.length; iRow++){
+            for(int iCol = 0; iCol < pixels[iRow].length; iCol++){
+                pixels[iRow][iCol] = 0xFF000000 | (iCol / 3) * 0x10_20_30 | iRow;
+            }
+        }
+        Helper.Image image = Helper.generateImage(pixels, QOISpecification.RGB, QOISpecification.sRGB);
+        byte[] file = QOIEncoder.qoiFilePacked(image);
+        int end = file.length - QOISpecification.QOI_EOF.length;
+        boolean result = true;
+        for(PixelBuffer buffer : new PixelBuffer[]{PixelBuffer.allocate(10, 6), PixelBuffer.allocateRGBA(10, 6), PixelBuffer.allocateDirect(10, 6)}){
+            QOIDecoder.decodeData(file, QOISpecification.HEADER_SIZE, end, buffer);
+            result &= Arrays.deepEquals(pixels, buffer.toArray());
+            byte[] output = new byte[QOIEncoder.maxFileSize(10, 6)];
+            int length = QOIEncoder.encodeData(buffer, output, QOISpecification.HEADER_SIZE);
+            result &= length == end && Arrays.equals(file, QOISpecification.HEADER_SIZE, end, output, QOISpecification.HEADER_SIZE, end);
+            // An image stored in the buffer is the same as the one stored in rows
+            Helper.Image stored = Helper.generateImage(buffer, QOISpecification.RGB, QOISpecification.sRGB);
+            result &= stored.equals(image) && stored.hashCode() == image.hashCode() && Arrays.deepEquals(pixels, stored.data());
+            result &= Arrays.equals(file, QOIEncoder.qoiFilePacked(stored)) && Arrays.equals(file, QOIEncoder.qoiFile(stored));
+            // A view shares the pixels of its buffer
+            PixelBuffer view = buffer.view(2, 1, 5, 3);
+            view.set(0, 0, 0x12345678);
+            result &= buffer.get(2, 1) == 0x12345678 && view.row(2).get(4, 0) == pixels[3][6];
+        }
+        result &= image.pixels().view(3, 2, 4, 2).get(1, 1) == pixels[3][4];
+        // The rows of an image stored in rows are not copied
+        result &= image.data() == pixels && image.hashCode() == Arrays.deepHashCode(pixels);
+        return result;
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testPixelFile(){
+        int[][] pixels = new int[7][5];
+        for(int iRow = 0; iRow < pixels.length; iRow++){
+            for(int iCol = 0; iCol < pixels[iRow].length; iCol++){
+                pixels[iRow][iCol] = 0xFF000000 | (iRow % 3) * 0x11_22_33 + iCol;
+            }
+        }
+        byte[] expected = QOIEncoder.qoiFile(Helper.generateImage(pixels, QOISpecification.RGB, QOISpecification.sRGB));
+        try {
+            Path source = Files.createTempFile("pixels", ".argb");
+            Path decoded = Files.createTempFile("decoded", ".argb");
+            var output = new ByteArrayOutputStream();
+            // Chunks of 2 rows, so that the rows are spread over 4 mappings
+            try(var file = PixelFile.create(source.toString(), 5, 7, 2 * 5 * 4)){
+                for(int iRow = 0; iRow < pixels.length; iRow++){
+                    file.pixels().setRow(iRow, pixels[iRow], 0);
+                }
+                try(var encoder = new QOIStreamEncoder(output, 5, 7, QOISpecification.RGB, QOISpecification.sRGB)){
+                    encoder.writeRows(file.pixels());
+                }
+            }
+            boolean result = Arrays.equals(expected, output.toByteArray());
+            try(var file = QOIStreamDecoder.decode(new ByteArrayInputStream(expected), decoded.toString())){
+                result &= Arrays.deepEquals(pixels, file.pixels().toArray());
+            }
+            try(var file = PixelFile.open(source.toString(), 5, 7, false)){
+                result &= file.pixels().view(1, 3, 3, 4).get(2, 3) == pixels[6][3];
+            }
+            // A truncated input leaves no file of pixels behind
+            Path truncated = decoded.resolveSibling(decoded.getFileName() + ".truncated");
+            try {
+                QOIStreamDecoder.decode(new ByteArrayInputStream(Arrays.copyOf(expected, expected.length / 2)), truncated.toString());
+                result = false;
+            } catch (RuntimeException | AssertionError e){
+                result &= !Files.exists(truncated);
+            }
+            Files.delete(source);
+            Files.delete(decoded);
+            return result;
+        } catch (IOException e){
+            return false;
+        }
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testMetrics(){
+        // Same pixels as testEncodeDataPacked : a run of 3 pixels, 1 diff, 2 luma, 1 rgb and 1 rgba
+        int[] pixels = {0xFF000000, 0xFF000000, 0xFF000000, 0xFF00FF00, 0xFFEEECEE, 0xFF000000, 0xFF646464, 0x5A5A5A5A};
+        byte[] output = new byte[pixels.length * 5];
+        boolean enabled = QOIMetrics.isEnabled();
+        QOIMetrics.disable();
+        QOIEncoder.encodeData(pixels, output, 0);
+        boolean result = QOIMetrics.json().contains("\"encode\":{\"images\":0,");
+
+        QOIMetrics.reset();
+        QOIMetrics.enable();
+        int length = QOIEncoder.encodeData(pixels, output, 0);
+        QOIDecoder.decodeData(output, 0, length, new int[pixels.length]);
+        String json = QOIMetrics.json();
+        String prometheus = QOIMetrics.prometheus();
+        QOIMetrics.reset();
+        if(!enabled)
+            QOIMetrics.disable();
+
+        result &= json.contains("\"encode\":{\"images\":1,\"pixels\":8,");
+        result &= json.contains("\"runPixels\":3,\"chunks\":{\"rgb\":1,\"rgba\":1,\"index\":0,\"diff\":1,\"luma\":2,\"run\":1}");
+        result &= json.contains("\"bytes\":{\"rgb\":4,\"rgba\":5,\"index\":0,\"diff\":1,\"luma\":4,\"run\":1}");
+        result &= prometheus.contains("qoi_chunks_total{operation=\"decode\",kind=\"luma\"} 2\n");
+        result &= prometheus.contains("qoi_latency_seconds_bucket{operation=\"decode\",le=\"+Inf\"} 1\n");
+        return result;
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testEvents(){
+        // Same pixels as testMetrics
+        int[][] pixels = {{0xFF000000, 0xFF000000, 0xFF000000, 0xFF00FF00}, {0xFFEEECEE, 0xFF000000, 0xFF646464, 0x5A5A5A5A}};
+        byte[] output = new byte[QOIEncoder.maxFileSize(4, 2)];
+        try(var recording = new Recording()){
+            for(var name : List.of("cs107.Encode", "cs107.Decode", "cs107.FileRead", "cs107.FileWrite")){
+                recording.enable(name).withThreshold(Duration.ZERO);
+            }
+            recording.start();
+            int length = QOIEncoder.encodeData(pixels, output, 0);
+            QOIDecoder.decodeData(output, 0, length, new int[2][4]);
+            // The same chunks, encoded and decoded row by row
+            var stream = new ByteArrayOutputStream();
+            QOIStreamEncoder.encode(Helper.generateImage(pixels, QOISpecification.RGBA, QOISpecification.sRGB), stream);
+            byte[] file = stream.toByteArray();
+            QOIStreamDecoder.decode(new ByteArrayInputStream(file));
+            // Fragments splitting the chunks
+            var decoder = new QOIPushDecoder((row, rowPixels) -> {});
+            for(int from = 0; from < file.length; from += 3){
+                decoder.feed(ByteBuffer.wrap(file, from, Math.min(3, file.length - from)));
+            }
+            Helper.write("events.qoi", true, false, ByteBuffer.wrap(file));
+            Helper.map(Path.of("res", "events.qoi").toString());
+            recording.stop();
+
+            Path events = Files.createTempFile("events", ".jfr");
+            recording.dump(events);
+            List<RecordedEvent> recorded = RecordingFile.readAllEvents(events);
+            Files.delete(events);
+            Files.delete(Path.of("res", "events.qoi"));
+
+            int encodings = 0;
+            int decodings = 0;
+            int files = 0;
+            boolean result = true;
+            for(RecordedEvent event : recorded){
+                String name = event.getEventType().getName();
+                // The other events, as the concatenation of the header, are not checked
+                if(!name.equals("cs107.Encode") && !name.equals("cs107.Decode") && !name.startsWith("cs107.File"))
+                    continue;
+                if(name.startsWith("cs107.File")){
+                    files++;
+                    result &= event.getString("path").endsWith("events.qoi") && event.getLong("bytes") == file.length;
+                    continue;
+                }
+                boolean encode = name.equals("cs107.Encode");
+                if(encode)
+                    encodings++;
+                else
+                    decodings++;
+                result &= event.getInt("width") == 4 && event.getInt("height") == 2 && event.getLong("pixels") == 8;
+                result &= event.getLong(encode ? "bytesOut" : "bytesIn") == length;
+                result &= event.getLong(encode ? "bytesIn" : "bytesOut") == 32;
+                result &= event.getLong("run") == 1 && event.getLong("diff") == 1 && event.getLong("luma") == 2;
+                result &= event.getLong("rgb") == 1 && event.getLong("rgba") == 1 && event.getLong("index") == 0;
+            }
+            return result && encodings == 2 && decodings == 3 && files == 2;
+        } catch (IOException e){
+            return false;
+        }
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testInspector(){
+        // Same file as references/qoi_op_run.qoi : 1 rgb and a run of 5 pixels
+        int[][] pixels = {{0xFF0000B3, 0xFF0000B3, 0xFF0000B3}, {0xFF0000B3, 0xFF0000B3, 0xFF0000B3}};
+        byte[] file = QOIEncoder.qoiFile(Helper.generateImage(pixels, QOISpecification.RGBA, QOISpecification.sRGB));
+        var chunks = new StringBuilder();
+        // A buffer smaller than the file, so that the chunks are read in several parts
+        QOIInspector.inspect(Channels.newChannel(new ByteArrayInputStream(file)), chunks, true, 22);
+        var summary = new StringBuilder();
+        QOIInspector.inspect(Channels.newChannel(new ByteArrayInputStream(file)), summary, false, QOIInspector.DEFAULT_BUFFER_SIZE);
+
+        String n = System.lineSeparator();
+        boolean result = chunks.toString().contains("00000E : FE 00 00 B3    | QOI_OP_RGB   | (0, 0) | r=0 g=0 b=179 -> #FF0000B3" + n);
+        result &= chunks.toString().contains("000012 : C4             | QOI_OP_RUN   | (1, 0) | run=5 -> #FF0000B3" + n
+                + "== Row 0 : 5 bytes, 1.667 bytes per pixel" + n + "== Row 1 : 0 bytes, 0.000 bytes per pixel" + n
+                + "000013 : 00 00 00 00 00 00 00 01 | QOI_EOF" + n);
+        result &= !summary.toString().contains("QOI_OP_RUN   |");
+        result &= summary.toString().contains("== QOI_OP_RUN   :          1 chunks ( 50.0 %),          1 bytes,          5 pixels" + n);
+        result &= summary.toString().contains("== Longest runs : 5 pixels at (1, 0)" + n);
+        return result && chunks.toString().endsWith(summary.toString().substring(summary.indexOf("== QOI_OP_RGB ")));
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testDiffRanges(){
+        byte[] b1 = new byte[100];
+        byte[] b2 = new byte[103];
+        // Two bytes separated by less than Diff.GAP equal bytes form one range
+        b2[10] = 1;
+        b2[14] = 1;
+        b2[50] = 1;
+        try {
+            Path dir_1 = Files.createTempDirectory("diff");
+            Path dir_2 = Files.createTempDirectory("diff");
+            Files.write(dir_1.resolve("a.bin"), b1);
+            Files.write(dir_2.resolve("a.bin"), b2);
+            Files.write(dir_1.resolve("b.bin"), b1);
+            Files.write(dir_2.resolve("b.bin"), b1);
+            Files.write(dir_1.resolve("c.bin"), b1);
+
+            var ranges = Diff.ranges(dir_1.resolve("a.bin"), dir_2.resolve("a.bin"));
+            boolean result = ranges.equals(List.of(new Diff.Range(10, 15), new Diff.Range(50, 51), new Diff.Range(100, 103)));
+            var results = Diff.diffDirectories(dir_1, dir_2, 2);
+            result &= results.size() == 3 && results.get(0).ranges().equals(ranges);
+            result &= results.get(1).same() && results.get(2).size_2() == -1 && !results.get(2).same();
+
+            // Windows of 16 bytes, mapped or read : the ranges do not depend on where the windows end
+            byte[] w1 = new byte[64];
+            byte[] w2 = new byte[70];
+            w2[14] = w2[18] = 1;
+            w2[28] = w2[40] = 1;
+            w2[60] = 1;
+            Files.write(dir_1.resolve("d.bin"), w1);
+            Files.write(dir_2.resolve("d.bin"), w2);
+            var expected = List.of(new Diff.Range(14, 19), new Diff.Range(28, 29), new Diff.Range(40, 41), new Diff.Range(60, 70));
+            try(var c1 = FileChannel.open(dir_1.resolve("d.bin"));
+                var c2 = FileChannel.open(dir_2.resolve("d.bin"))){
+                result &= Diff.ranges(c1, c2, 16, 0).equals(expected);
+                result &= Diff.ranges(c1, c2, 16, Long.MAX_VALUE).equals(expected);
+                result &= Diff.ranges(c1, c2, 64, 0).equals(expected);
+            }
+
+            for(var dir : List.of(dir_1, dir_2)){
+                for(var name : List.of("a.bin", "b.bin", "c.bin", "d.bin")){
+                    Files.deleteIfExists(dir.resolve(name));
+                }
+                Files.delete(dir);
+            }
+            return result;
+        } catch (IOException e){
+            return false;
+        }
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testPixelDiff(){
+        int p = 0xFF102030, q = 0xFF405060;
+        int[][] pixels = {{p, q}, {p, q}, {q, p}};
+        byte[] encoded = QOIEncoder.qoiFile(Helper.generateImage(pixels, QOISpecification.RGB, QOISpecification.sRGB));
+        // Same pixels, but every pixel is a QOI_OP_RGB chunk instead of QOI_OP_INDEX chunks
+        byte[] rgbP = QOIEncoder.qoiOpRGB(new byte[]{0x10, 0x20, 0x30, (byte) 0xFF});
+        byte[] rgbQ = QOIEncoder.qoiOpRGB(new byte[]{0x40, 0x50, 0x60, (byte) 0xFF});
+        byte[] rgb = ArrayUtils.concat(QOIEncoder.qoiHeader(2, 3, QOISpecification.RGB, QOISpecification.sRGB),
+                rgbP, rgbQ, rgbP, rgbQ, rgbQ, rgbP, QOISpecification.QOI_EOF);
+        var report = QOIPixelDiff.compare(new ByteArrayInputStream(encoded), new ByteArrayInputStream(rgb), false);
+        boolean result = !Arrays.equals(encoded, rgb) && report.same() && report.sameHeader() && report.bounds() == null;
+
+        int[][] other = {{p, q}, {p, p}, {p, p}};
+        byte[] changed = QOIEncoder.qoiFile(Helper.generateImage(other, QOISpecification.RGBA, QOISpecification.sRGB));
+        report = QOIPixelDiff.compare(new ByteArrayInputStream(encoded), new ByteArrayInputStream(changed), false);
+        result &= !report.same() && !report.sameHeader() && report.comparedRows() == 3;
+        result &= report.differentRows() == 2 && report.differentPixels() == 2;
+        result &= report.bounds().equals(new QOIPixelDiff.Region(0, 1, 2, 2));
+        result &= report.regions().equals(List.of(new QOIPixelDiff.Region(0, 1, 2, 2))) && report.regionCount() == 1;
+
+        report = QOIPixelDiff.compare(new ByteArrayInputStream(encoded), new ByteArrayInputStream(changed), true);
+        result &= report.comparedRows() == 2 && report.differentPixels() == 1;
+        result &= report.regions().equals(List.of(new QOIPixelDiff.Region(1, 1, 1, 1)));
+
+        byte[] smaller = QOIEncoder.qoiFile(Helper.generateImage(new int[][]{{p, q}}, QOISpecification.RGB, QOISpecification.sRGB));
+        report = QOIPixelDiff.compare(new ByteArrayInputStream(encoded), new ByteArrayInputStream(smaller), false);
+        result &= !report.sameSize() && !report.same();
+
+        // A corrupted second header still closes both inputs
+        boolean[] closed = new boolean[2];
+        byte[] corrupted = encoded.clone();
+        corrupted[0] = 'x';
+        try {
+            QOIPixelDiff.compare(new ByteArrayInputStream(encoded){
+                @Override
+                public void close(){
+                    closed[0] = true;
+                }
+            }, new ByteArrayInputStream(corrupted){
+                @Override
+                public void close(){
+                    closed[1] = true;
+                }
+            }, false);
+            result = false;
+        } catch (AssertionError | RuntimeException e){
+            result &= closed[0] && closed[1];
+        }
+        return result;
+    }
+
+    // ============================================================================================
+    // ============================== BatchTranscoder examples ====================================
+    // ============================================================================================
+
+    @SuppressWarnings("unused")
+    private static boolean testBatchTranscoder(){
+        int[][] pixels = new int[6][9];
+        for(int iRow = 0; iRow < pixels.length; iRow++){
+            for(int iCol = 0; iCol < pixels[iRow].length; iCol++){
+                pixels[iRow][iCol] = 0xFF000000 | iRow * 0x20_10_08 + (iCol / 3) * 0x01_01_01;
+            }
+        }
+        var image = Helper.generateImage(pixels, QOISpecification.RGB, QOISpecification.sRGB);
+        byte[] encoded = QOIEncoder.qoiFile(image);
+        try {
+            Path input = Files.createTempDirectory("batch");
+            Path output = Files.createTempDirectory("batch");
+            var buffer = Helper.createImageBuffer(9, 6, QOISpecification.RGB);
+            for(int iRow = 0; iRow < pixels.length; iRow++){
+                Helper.setRow(buffer, iRow, pixels[iRow]);
+            }
+            Files.createDirectories(input.resolve("sub"));
+            ImageIO.write(buffer, "png", input.resolve("sub").resolve("image.png").toFile());
+            Files.write(input.resolve("image.qoi"), encoded);
+            Files.write(input.resolve("truncated.qoi"), Arrays.copyOf(encoded, encoded.length / 2));
+            Files.write(input.resolve("notes.txt"), new byte[]{1, 2, 3});
+            // The output of the failed conversion already exists and must keep its content
+            Files.write(output.resolve("truncated.png"), new byte[]{42});
+
+            var report = BatchTranscoder.transcode(input, output, 2, 1 << 20);
+            var results = report.results();
+            boolean result = results.size() == 3 && report.failures() == 1;
+            result &= results.get(0).input().equals(input.resolve("image.qoi")) && !results.get(0).failed();
+            result &= Arrays.deepEquals(pixels, Helper.readImage(output.resolve("image.png").toString()).data());
+            result &= results.get(1).output().equals(output.resolve("sub").resolve("image.qoi")) && !results.get(1).failed();
+            result &= Arrays.equals(encoded, Files.readAllBytes(output.resolve("sub").resolve("image.qoi")));
+            result &= results.get(1).ratio() == 100d * results.get(1).inputSize() / encoded.length;
+            result &= results.get(2).input().equals(input.resolve("truncated.qoi")) && results.get(2).failed();
+            result &= Arrays.equals(new byte[]{42}, Files.readAllBytes(output.resolve("truncated.png")));
+            // No temporary file is left behind
+            List<Path> written;
+            try(var walk = Files.walk(output)){
+                written = walk.filter(Files::isRegularFile).sorted().toList();
+            }
+            result &= written.equals(List.of(output.resolve("image.png"), output.resolve("sub").resolve("image.qoi"), output.resolve("truncated.png")));
+            for(var root : List.of(input, output)){
+                try(var walk = Files.walk(root)){
+                    for(var path : walk.sorted(Comparator.reverseOrder()).toList()){
+                        Files.delete(path);
+                    }
+                }
+            }
+            return result;
+        } catch (IOException e){
+            return false;
+        }
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testTiledRoundTrip(){
+        int[][] pixels = new int[5][7];
+        for(int[] row : pixels){
+            Arrays.fill(row, 0xFF123456);
+        }
+        pixels[3][4] = 0x80FFFFFF;
+        Helper.Image image = Helper.generateImage(pixels, QOISpecification.RGBA, QOISpecification.sRGB);
+        byte[] tiled = TiledQOI.encode(image, 3, 2);
+        return TiledQOI.decode(tiled).equals(image)
+                && Arrays.equals(QOIEncoder.qoiFile(image), TiledQOI.toQoi(tiled));
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testTiledRegion(){
+        int[][] pixels = new int[5][7];
+        for(int iRow = 0; iRow < pixels.length; iRow++){
+            for(int iCol = 0; iCol < pixels[iRow].length; iCol++){
+                pixels[iRow][iCol] = 0xFF000000 | (iRow * 40) << 8 | iCol * 30;
+            }
+        }
+        Helper.Image image = Helper.generateImage(pixels, QOISpecification.RGB, QOISpecification.sRGB);
+        try {
+            Path file = Files.createTempFile("region", ".qoit");
+            try {
+                Files.write(file, TiledQOI.encode(image, 3, 2));
+                int[][] region = TiledQOI.decodeRegion(file.toString(), 2, 1, 4, 3).data();
+                for(int iRow = 0; iRow < 3; iRow++){
+                    if(!Arrays.equals(region[iRow], 0, 4, pixels[iRow + 1], 2, 6))
+                        return false;
+                }
+                return true;
+            } finally {
+                Files.delete(file);
+            }
+        } catch (IOException e){
+            return false;
+        }
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testIndexedDecode(){
+        int[][] pixels = new int[4][5];
+        for(int iRow = 0; iRow < pixels.length; iRow++){
+            // Runs crossing the checkpoints
+            Arrays.fill(pixels[iRow], 0, 3, 0xFF000000 | iRow * 50);
+            Arrays.fill(pixels[iRow], 3, 5, 0x80102030);
+        }
+        Helper.Image image = Helper.generateImage(pixels, QOISpecification.RGBA, QOISpecification.sRGB);
+        List<QOIIndex.Checkpoint> checkpoints = new ArrayList<>();
+        byte[] file = QOIIndex.qoiFile(image, 3, checkpoints);
+        QOIIndex.Index index = QOIIndex.decodeIndex(QOIIndex.indexFile(new QOIIndex.Index(5, 4, 3, file.length, checkpoints)));
+        int[][] rows = QOIIndex.decodeRows(file, index, 2, 2);
+        return Arrays.equals(file, QOIEncoder.qoiFile(image))
+                && checkpoints.size() == 7
+                && QOIIndex.decode(file, index).equals(image)
+                && Arrays.equals(rows[0], pixels[2]) && Arrays.equals(rows[1], pixels[3]);
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testParallelDecode(){
+        int[][] pixels = new int[16][16];
+        for(int iRow = 0; iRow < pixels.length; iRow++){
+            for(int iCol = 0; iCol < pixels[iRow].length; iCol++){
+                // Runs, differences and pixels read back from the hash table
+                pixels[iRow][iCol] = 0xFF000000 | ((iRow * iCol) % 5) * 0x30_10_08 | (iCol / 4);
+            }
+        }
+        byte[] file = QOIEncoder.qoiFile(Helper.generateImage(pixels, QOISpecification.RGB, QOISpecification.sRGB));
+        int[][] decoded = new int[16][16];
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            QOIParallelDecoder.decodeData(file, QOISpecification.HEADER_SIZE, file.length - QOISpecification.QOI_EOF.length, decoded, pool, 8);
+        } finally {
+            pool.shutdown();
+        }
+        return Arrays.deepEquals(decoded, pixels);
+    }
+
 }
\ No newline at end of file
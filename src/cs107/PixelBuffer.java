@@ -0,0 +1,516 @@
+package cs107;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+/**
+ * Rectangle of ARGB pixels, whatever the way they are stored
+ * @apiNote The backends are :
+ * <ul>
+ * <li>Rows : the int[][] of Helper.Image::data, one array per row</li>
+ * <li>Ints : one flat int[] of ARGB pixels, row after row</li>
+ * <li>Bytes : one flat byte[] of RGBA pixels (See PixelFormat::RGBA)</li>
+ * <li>Direct : ARGB pixels stored off-heap, in a direct ByteBuffer</li>
+ * <li>Mapped : ARGB pixels of a file mapped in memory, for images larger than an array (See PixelFile)</li>
+ * </ul>
+ * A view (PixelBuffer::view, PixelBuffer::row) shares the pixels of its buffer, nothing is copied.
+ * The columns are numbered by x and the rows by y, (0, 0) being the top left pixel
+ * @version 1.0
+ * @since 1.0
+ */
+public abstract class PixelBuffer {
+
+    private final int width;
+    private final int height;
+
+    private PixelBuffer(int width, int height){
+        assert width >= 0 && height >= 0 : "Width or height is invalid";
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Number of columns of the buffer
+     * @return (int) - The width
+     */
+    public final int width(){
+        return width;
+    }
+
+    /**
+     * Number of rows of the buffer
+     * @return (int) - The height
+     */
+    public final int height(){
+        return height;
+    }
+
+    // ==================================================================================
+    // ================================= PIXEL ACCESS ===================================
+    // ==================================================================================
+
+    /**
+     * Read one pixel
+     * @param x (int) - Column of the pixel
+     * @param y (int) - Row of the pixel
+     * @return (int) - ARGB pixel
+     * @throws AssertionError if the pixel is outside the buffer
+     */
+    public abstract int get(int x, int y);
+
+    /**
+     * Write one pixel
+     * @param x (int) - Column of the pixel
+     * @param y (int) - Row of the pixel
+     * @param pixel (int) - ARGB pixel
+     * @throws AssertionError if the pixel is outside the buffer
+     */
+    public abstract void set(int x, int y, int pixel);
+
+    /**
+     * Copy the width pixels of a row in an array
+     * @param y (int) - Index of the row
+     * @param pixels (int[]) - Where to store the ARGB pixels
+     * @param from (int) - Index in pixels of the first pixel of the row
+     * @throws AssertionError if the row is outside the buffer or pixels is too small
+     */
+    public abstract void getRow(int y, int[] pixels, int from);
+
+    /**
+     * Overwrite a row with width pixels of an array
+     * @param y (int) - Index of the row
+     * @param pixels (int[]) - ARGB pixels
+     * @param from (int) - Index in pixels of the first pixel of the row
+     * @throws AssertionError if the row is outside the buffer or pixels is too small
+     */
+    public abstract void setRow(int y, int[] pixels, int from);
+
+    /**
+     * Rectangle of this buffer sharing its pixels
+     * @param x (int) - First column of the rectangle
+     * @param y (int) - First row of the rectangle
+     * @param width (int) - Width of the rectangle
+     * @param height (int) - Height of the rectangle
+     * @return (PixelBuffer) - The view, of the same backend
+     * @throws AssertionError if the rectangle is not inside the buffer
+     */
+    public abstract PixelBuffer view(int x, int y, int width, int height);
+
+    /**
+     * Row of this buffer sharing its pixels
+     * @param y (int) - Index of the row
+     * @return (PixelBuffer) - View of height 1
+     * @throws AssertionError if the row is outside the buffer
+     */
+    public final PixelBuffer row(int y){
+        return view(0, y, width, 1);
+    }
+
+    /**
+     * Copy the pixels in the format of Helper.Image::data
+     * @return (int[][]) - ARGB pixels, one array per row
+     */
+    public final int[][] toArray(){
+        int[][] rows = new int[height][width];
+        for(int y = 0; y < height; y++){
+            getRow(y, rows[y], 0);
+        }
+        return rows;
+    }
+
+    /**
+     * Rows stored by this buffer, if it is made of whole int[] rows
+     * @return (int[][]) - The rows, shared with the buffer, null for the other backends and views
+     */
+    int[][] array(){
+        return null;
+    }
+
+    final void checkPixel(int x, int y){
+        assert 0 <= x && x < width && 0 <= y && y < height : "Pixel is outside the buffer";
+    }
+
+    final void checkRow(int y, int[] pixels, int from){
+        assert 0 <= y && y < height : "Row is outside the buffer";
+        assert pixels != null : "Pixels is null";
+        assert 0 <= from && from + width <= pixels.length : "Pixels is too small";
+    }
+
+    final void checkView(int x, int y, int width, int height){
+        assert width >= 0 && height >= 0 && 0 <= x && x + width <= this.width && 0 <= y && y + height <= this.height
+                : "Rectangle is not inside the buffer";
+    }
+
+    // ==================================================================================
+    // =================================== FACTORIES ====================================
+    // ==================================================================================
+
+    /**
+     * Buffer over the rows of an image, without copying them
+     * @param rows (int[][]) - ARGB pixels, one array per row, all of the same length (as Helper.Image::data)
+     * @return (PixelBuffer) - The buffer
+     * @throws AssertionError if rows is null or empty or its rows are not of the same length
+     */
+    public static PixelBuffer wrap(int[][] rows){
+        assert rows != null && rows.length > 0 && rows[0] != null : "Rows is null";
+        for(int[] row : rows){
+            assert row != null && row.length == rows[0].length : "Two of the rows does not have the same length";
+        }
+        return new Rows(rows, 0, 0, rows[0].length, rows.length);
+    }
+
+    /**
+     * Buffer over a flat array of ARGB pixels, without copying it
+     * @param pixels (int[]) - ARGB pixels, row after row
+     * @param width (int) - Width of the image
+     * @param height (int) - Height of the image
+     * @return (PixelBuffer) - The buffer
+     * @throws AssertionError if pixels is null or its length is not width * height
+     */
+    public static PixelBuffer wrap(int[] pixels, int width, int height){
+        assert pixels != null : "Pixels is null";
+        assert (long) width * height == pixels.length : "Pixels length differs from width * height";
+        return new Ints(pixels, 0, width, width, height);
+    }
+
+    /**
+     * Buffer over a flat array of RGBA pixels, without copying it
+     * @param rgba (byte[]) - RGBA pixels, row after row
+     * @param width (int) - Width of the image
+     * @param height (int) - Height of the image
+     * @return (PixelBuffer) - The buffer
+     * @throws AssertionError if rgba is null or its length is not 4 * width * height
+     */
+    public static PixelBuffer wrapRGBA(byte[] rgba, int width, int height){
+        assert rgba != null : "Bytes is null";
+        assert 4L * width * height == rgba.length : "Bytes length differs from 4 * width * height";
+        return new Bytes(rgba, 0, width, width, height);
+    }
+
+    /**
+     * Allocate a buffer stored as a flat array of ARGB pixels
+     * @param width (int) - Width of the image
+     * @param height (int) - Height of the image
+     * @return (PixelBuffer) - The buffer, filled with 0
+     * @throws AssertionError if the dimensions are negative or too large for one array
+     */
+    public static PixelBuffer allocate(int width, int height){
+        assert width >= 0 && height >= 0 && (long) width * height <= Integer.MAX_VALUE - 8 : "Image is too large";
+        return wrap(new int[width * height], width, height);
+    }
+
+    /**
+     * Allocate a buffer stored as a flat array of RGBA pixels
+     * @param width (int) - Width of the image
+     * @param height (int) - Height of the image
+     * @return (PixelBuffer) - The buffer, filled with 0
+     * @throws AssertionError if the dimensions are negative or too large for one array
+     */
+    public static PixelBuffer allocateRGBA(int width, int height){
+        assert width >= 0 && height >= 0 && 4L * width * height <= Integer.MAX_VALUE - 8 : "Image is too large";
+        return wrapRGBA(new byte[4 * width * height], width, height);
+    }
+
+    /**
+     * Allocate a buffer stored off-heap
+     * @apiNote The memory is outside of the Java heap, it is released when the buffer is garbage collected
+     * @param width (int) - Width of the image
+     * @param height (int) - Height of the image
+     * @return (PixelBuffer) - The buffer, filled with 0
+     * @throws AssertionError if the dimensions are negative or too large for one ByteBuffer
+     */
+    public static PixelBuffer allocateDirect(int width, int height){
+        assert width >= 0 && height >= 0 && 4L * width * height <= Integer.MAX_VALUE : "Image is too large";
+        IntBuffer pixels = ByteBuffer.allocateDirect(4 * width * height).order(ByteOrder.nativeOrder()).asIntBuffer();
+        return new Direct(pixels, 0, width, width, height);
+    }
+
+    // ==================================================================================
+    // =================================== BACKENDS =====================================
+    // ==================================================================================
+
+    /**
+     * Pixels stored in one array per row
+     */
+    static final class Rows extends PixelBuffer {
+        final int[][] rows;
+        final int column;
+        final int firstRow;
+
+        private Rows(int[][] rows, int column, int firstRow, int width, int height){
+            super(width, height);
+            this.rows = rows;
+            this.column = column;
+            this.firstRow = firstRow;
+        }
+
+        @Override
+        public int get(int x, int y){
+            checkPixel(x, y);
+            return rows[firstRow + y][column + x];
+        }
+
+        @Override
+        public void set(int x, int y, int pixel){
+            checkPixel(x, y);
+            rows[firstRow + y][column + x] = pixel;
+        }
+
+        @Override
+        public void getRow(int y, int[] pixels, int from){
+            checkRow(y, pixels, from);
+            System.arraycopy(rows[firstRow + y], column, pixels, from, width());
+        }
+
+        @Override
+        public void setRow(int y, int[] pixels, int from){
+            checkRow(y, pixels, from);
+            System.arraycopy(pixels, from, rows[firstRow + y], column, width());
+        }
+
+        @Override
+        public PixelBuffer view(int x, int y, int width, int height){
+            checkView(x, y, width, height);
+            return new Rows(rows, column + x, firstRow + y, width, height);
+        }
+
+        @Override
+        int[][] array(){
+            boolean whole = column == 0 && firstRow == 0 && height() == rows.length && width() == rows[0].length;
+            return whole ? rows : null;
+        }
+    }
+
+    /**
+     * ARGB pixels stored in one flat array
+     */
+    static final class Ints extends PixelBuffer {
+        final int[] pixels;
+        final int offset;
+        final int stride;
+
+        private Ints(int[] pixels, int offset, int stride, int width, int height){
+            super(width, height);
+            this.pixels = pixels;
+            this.offset = offset;
+            this.stride = stride;
+        }
+
+        /**
+         * Index in pixels of the first pixel of a row
+         */
+        int rowStart(int y){
+            return offset + y * stride;
+        }
+
+        @Override
+        public int get(int x, int y){
+            checkPixel(x, y);
+            return pixels[rowStart(y) + x];
+        }
+
+        @Override
+        public void set(int x, int y, int pixel){
+            checkPixel(x, y);
+            pixels[rowStart(y) + x] = pixel;
+        }
+
+        @Override
+        public void getRow(int y, int[] pixels, int from){
+            checkRow(y, pixels, from);
+            System.arraycopy(this.pixels, rowStart(y), pixels, from, width());
+        }
+
+        @Override
+        public void setRow(int y, int[] pixels, int from){
+            checkRow(y, pixels, from);
+            System.arraycopy(pixels, from, this.pixels, rowStart(y), width());
+        }
+
+        @Override
+        public PixelBuffer view(int x, int y, int width, int height){
+            checkView(x, y, width, height);
+            return new Ints(pixels, rowStart(y) + x, stride, width, height);
+        }
+    }
+
+    /**
+     * RGBA pixels stored in one flat array
+     */
+    static final class Bytes extends PixelBuffer {
+        final byte[] rgba;
+        // Offset and stride in pixels, not in bytes
+        final int offset;
+        final int stride;
+
+        private Bytes(byte[] rgba, int offset, int stride, int width, int height){
+            super(width, height);
+            this.rgba = rgba;
+            this.offset = offset;
+            this.stride = stride;
+        }
+
+        /**
+         * Index in rgba of the first byte of a row
+         */
+        int rowStart(int y){
+            return 4 * (offset + y * stride);
+        }
+
+        @Override
+        public int get(int x, int y){
+            checkPixel(x, y);
+            return PixelFormat.RGBA.toARGB(rgba, rowStart(y) + 4 * x);
+        }
+
+        @Override
+        public void set(int x, int y, int pixel){
+            checkPixel(x, y);
+            PixelFormat.RGBA.fromARGB(pixel, rgba, rowStart(y) + 4 * x);
+        }
+
+        @Override
+        public void getRow(int y, int[] pixels, int from){
+            checkRow(y, pixels, from);
+            PixelFormat.RGBA.toARGB(rgba, rowStart(y), pixels, from, width());
+        }
+
+        @Override
+        public void setRow(int y, int[] pixels, int from){
+            checkRow(y, pixels, from);
+            PixelFormat.RGBA.fromARGB(pixels, from, width(), rgba, rowStart(y));
+        }
+
+        @Override
+        public PixelBuffer view(int x, int y, int width, int height){
+            checkView(x, y, width, height);
+            return new Bytes(rgba, offset + y * stride + x, stride, width, height);
+        }
+    }
+
+    /**
+     * ARGB pixels stored off-heap
+     */
+    static final class Direct extends PixelBuffer {
+        final IntBuffer pixels;
+        final int offset;
+        final int stride;
+
+        private Direct(IntBuffer pixels, int offset, int stride, int width, int height){
+            super(width, height);
+            this.pixels = pixels;
+            this.offset = offset;
+            this.stride = stride;
+        }
+
+        /**
+         * Index in pixels of the first pixel of a row
+         */
+        int rowStart(int y){
+            return offset + y * stride;
+        }
+
+        @Override
+        public int get(int x, int y){
+            checkPixel(x, y);
+            return pixels.get(rowStart(y) + x);
+        }
+
+        @Override
+        public void set(int x, int y, int pixel){
+            checkPixel(x, y);
+            pixels.put(rowStart(y) + x, pixel);
+        }
+
+        @Override
+        public void getRow(int y, int[] pixels, int from){
+            checkRow(y, pixels, from);
+            this.pixels.get(rowStart(y), pixels, from, width());
+        }
+
+        @Override
+        public void setRow(int y, int[] pixels, int from){
+            checkRow(y, pixels, from);
+            this.pixels.put(rowStart(y), pixels, from, width());
+        }
+
+        @Override
+        public PixelBuffer view(int x, int y, int width, int height){
+            checkView(x, y, width, height);
+            return new Direct(pixels, rowStart(y) + x, stride, width, height);
+        }
+    }
+
+    /**
+     * ARGB pixels of a PixelFile, mapped in chunks of rowsPerChunk rows
+     */
+    static final class Mapped extends PixelBuffer {
+        final PixelFile file;
+        final IntBuffer[] chunks;
+        final int rowsPerChunk;
+        // Width of the file, column and row of the pixel (0, 0) in the file
+        final int stride;
+        final int column;
+        final int firstRow;
+
+        Mapped(PixelFile file, IntBuffer[] chunks, int rowsPerChunk, int width, int height){
+            this(file, chunks, rowsPerChunk, width, 0, 0, width, height);
+        }
+
+        private Mapped(PixelFile file, IntBuffer[] chunks, int rowsPerChunk, int stride, int column, int firstRow, int width, int height){
+            super(width, height);
+            this.file = file;
+            this.chunks = chunks;
+            this.rowsPerChunk = rowsPerChunk;
+            this.stride = stride;
+            this.column = column;
+            this.firstRow = firstRow;
+        }
+
+        /**
+         * Chunk containing a row
+         */
+        IntBuffer chunk(int y){
+            file.checkOpen();
+            return chunks[(firstRow + y) / rowsPerChunk];
+        }
+
+        /**
+         * Index in its chunk of the first pixel of a row
+         */
+        int rowStart(int y){
+            return (firstRow + y) % rowsPerChunk * stride + column;
+        }
+
+        @Override
+        public int get(int x, int y){
+            checkPixel(x, y);
+            return chunk(y).get(rowStart(y) + x);
+        }
+
+        @Override
+        public void set(int x, int y, int pixel){
+            checkPixel(x, y);
+            chunk(y).put(rowStart(y) + x, pixel);
+        }
+
+        @Override
+        public void getRow(int y, int[] pixels, int from){
+            checkRow(y, pixels, from);
+            chunk(y).get(rowStart(y), pixels, from, width());
+        }
+
+        @Override
+        public void setRow(int y, int[] pixels, int from){
+            checkRow(y, pixels, from);
+            chunk(y).put(rowStart(y), pixels, from, width());
+        }
+
+        @Override
+        public PixelBuffer view(int x, int y, int width, int height){
+            checkView(x, y, width, height);
+            return new Mapped(file, chunks, rowsPerChunk, stride, column + x, firstRow + y, width, height);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,124 @@
+package cs107;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Pixels of an image stored in a file of the disk and mapped in memory
+ * @apiNote The file contains the ARGB pixels, 4 bytes each in "Big Endian", row after row, without header.
+ * It is mapped in chunks of whole rows, each smaller than CHUNK_SIZE, so the number of pixels
+ * is only limited by the width and the height, not by the size of an array or of a ByteBuffer.
+ * The pixels live in the page cache, not on the Java heap. They can only be accessed
+ * between the creation of the PixelFile and its closing; on JDK 17 the mapping itself is released
+ * once the chunks are garbage collected
+ * @version 1.0
+ * @since 1.0
+ */
+public final class PixelFile implements AutoCloseable {
+
+    /**
+     * Maximum size of a mapped chunk
+     */
+    public static final int CHUNK_SIZE = 1 << 30;
+
+    private final MappedByteBuffer[] chunks;
+    private final PixelBuffer pixels;
+    private final boolean writable;
+    private boolean closed = false;
+
+    private PixelFile(Path path, int width, int height, boolean create, boolean writable, int chunkSize){
+        assert path != null : "Path is null";
+        assert width > 0 && height > 0 : "Width or height is invalid";
+        assert 4L * width <= chunkSize : "Rows are too large to be mapped";
+        this.writable = writable;
+        int rowsPerChunk = (int) Math.min(height, chunkSize / (4L * width));
+        int chunkCount = (height + rowsPerChunk - 1) / rowsPerChunk;
+        long size = 4L * width * height;
+
+        var options = create
+                ? new StandardOpenOption[]{StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING}
+                : writable ? new StandardOpenOption[]{StandardOpenOption.READ, StandardOpenOption.WRITE}
+                : new StandardOpenOption[]{StandardOpenOption.READ};
+        var mode = writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY;
+        this.chunks = new MappedByteBuffer[chunkCount];
+        var views = new IntBuffer[chunkCount];
+        try(var channel = FileChannel.open(path, options)){
+            if(!create && channel.size() != size)
+                Helper.fail("File does not contain %d x %d pixels : \"%s\"%n", width, height, path);
+            for(int iChunk = 0; iChunk < chunkCount; iChunk++){
+                long start = 4L * width * rowsPerChunk * iChunk;
+                chunks[iChunk] = channel.map(mode, start, Math.min(size - start, 4L * width * rowsPerChunk));
+                views[iChunk] = chunks[iChunk].order(ByteOrder.BIG_ENDIAN).asIntBuffer();
+            }
+        } catch (IOException e){
+            Helper.fail("An error occurred while trying to map : \"%s\"%n", path);
+        }
+        this.pixels = new PixelBuffer.Mapped(this, views, rowsPerChunk, width, height);
+    }
+
+    /**
+     * Create a file of pixels, all equal to 0, replacing the file if it exists
+     * @param path (String) - Relative or Absolute path to the file
+     * @param width (int) - Width of the image
+     * @param height (int) - Height of the image
+     * @return (PixelFile) - The mapped file, readable and writable
+     * @throws AssertionError if the path is null or the dimensions are invalid
+     */
+    public static PixelFile create(String path, int width, int height){
+        return new PixelFile(Path.of(path), width, height, true, true, CHUNK_SIZE);
+    }
+
+    /**
+     * Same as PixelFile::create with chunks of the given size
+     */
+    static PixelFile create(String path, int width, int height, int chunkSize){
+        return new PixelFile(Path.of(path), width, height, true, true, chunkSize);
+    }
+
+    /**
+     * Map an existing file of pixels
+     * @param path (String) - Relative or Absolute path to the file
+     * @param width (int) - Width of the image
+     * @param height (int) - Height of the image
+     * @param writable (boolean) - The pixels can be modified, the changes are written to the file
+     * @return (PixelFile) - The mapped file
+     * @throws AssertionError if the path is null or the dimensions are invalid
+     */
+    public static PixelFile open(String path, int width, int height, boolean writable){
+        return new PixelFile(Path.of(path), width, height, false, writable, CHUNK_SIZE);
+    }
+
+    /**
+     * Pixels of the file
+     * @return (PixelBuffer) - The pixels, valid until the file is closed
+     * @throws AssertionError if the file is closed
+     */
+    public PixelBuffer pixels(){
+        checkOpen();
+        return pixels;
+    }
+
+    /**
+     * Write the modified pixels to the storage device and stop giving access to them
+     */
+    @Override
+    public void close(){
+        if(closed)
+            return;
+        closed = true;
+        if(writable){
+            for(MappedByteBuffer chunk : chunks){
+                chunk.force();
+            }
+        }
+    }
+
+    void checkOpen(){
+        assert !closed : "Pixel file is closed";
+    }
+}
\ No newline at end of file
@@ -0,0 +1,182 @@
+package cs107;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Layouts of interleaved 8 bits pixels and bulk conversions from and to packed ARGB pixels
+ * @apiNote The conversions work on whole rows without allocating anything. Every pixel is read
+ * or written with one 4 bytes access (VarHandle view of the byte array) and its channels are
+ * reordered with shifts and rotations. The formats without alpha are read as opaque pixels
+ * and their alpha is dropped when written
+ * @version 1.0
+ * @since 1.0
+ */
+public enum PixelFormat {
+
+    /**
+     * Red, green, blue and alpha bytes (the order of QOISpecification)
+     */
+    RGBA(4),
+    /**
+     * Red, green and blue bytes
+     */
+    RGB(3),
+    /**
+     * Blue, green and red bytes (BufferedImage.TYPE_3BYTE_BGR)
+     */
+    BGR(3),
+    /**
+     * Alpha, blue, green and red bytes (BufferedImage.TYPE_4BYTE_ABGR)
+     */
+    ABGR(4);
+
+    private static final VarHandle BIG_ENDIAN = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle LITTLE_ENDIAN = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private static final int OPAQUE = 0xFF_00_00_00;
+
+    private final int bytesPerPixel;
+
+    PixelFormat(int bytesPerPixel){
+        this.bytesPerPixel = bytesPerPixel;
+    }
+
+    /**
+     * Number of bytes of a pixel in this format
+     * @return (int) - 3 or 4
+     */
+    public int bytesPerPixel(){
+        return bytesPerPixel;
+    }
+
+    // ==================================================================================
+    // ================================ READING METHODS =================================
+    // ==================================================================================
+
+    /**
+     * Read one pixel stored in this format
+     * @param source (byte[]) - Interleaved pixels
+     * @param offset (int) - Index of the first byte of the pixel
+     * @return (int) - ARGB pixel, opaque if the format has no alpha
+     * @throws AssertionError if the source is null or too small
+     */
+    public int toARGB(byte[] source, int offset){
+        assert source != null : "Source is null";
+        assert 0 <= offset && offset + bytesPerPixel <= source.length : "Source is too small";
+        return switch(this){
+            case RGBA -> Integer.rotateRight((int) BIG_ENDIAN.get(source, offset), 8);
+            case ABGR -> Integer.rotateRight((int) LITTLE_ENDIAN.get(source, offset), 8);
+            case RGB -> OPAQUE | (source[offset] & 0xFF) << 16 | (source[offset + 1] & 0xFF) << 8 | (source[offset + 2] & 0xFF);
+            case BGR -> OPAQUE | (source[offset + 2] & 0xFF) << 16 | (source[offset + 1] & 0xFF) << 8 | (source[offset] & 0xFF);
+        };
+    }
+
+    /**
+     * Read consecutive pixels stored in this format
+     * @param source (byte[]) - Interleaved pixels
+     * @param offset (int) - Index of the first byte of the first pixel
+     * @param pixels (int[]) - Where to store the ARGB pixels, opaque if the format has no alpha
+     * @param from (int) - Index in pixels of the first pixel
+     * @param count (int) - Number of pixels to read
+     * @throws AssertionError if one of the arrays is null or too small
+     */
+    public void toARGB(byte[] source, int offset, int[] pixels, int from, int count){
+        assert source != null : "Source is null";
+        assert pixels != null : "Pixels is null";
+        assert count >= 0 && 0 <= from && from + count <= pixels.length : "Pixels is too small";
+        assert 0 <= offset && offset + (long) count * bytesPerPixel <= source.length : "Source is too small";
+
+        switch(this){
+            case RGBA -> {
+                for(int i = 0; i < count; i++, offset += 4)
+                    pixels[from + i] = Integer.rotateRight((int) BIG_ENDIAN.get(source, offset), 8);
+            }
+            case ABGR -> {
+                for(int i = 0; i < count; i++, offset += 4)
+                    pixels[from + i] = Integer.rotateRight((int) LITTLE_ENDIAN.get(source, offset), 8);
+            }
+            // The 4 bytes read for a pixel overlap the next one, so the last pixel is read byte by byte
+            case RGB -> {
+                for(int i = 0; i < count - 1; i++, offset += 3)
+                    pixels[from + i] = OPAQUE | (int) BIG_ENDIAN.get(source, offset) >>> 8;
+            }
+            case BGR -> {
+                for(int i = 0; i < count - 1; i++, offset += 3)
+                    pixels[from + i] = OPAQUE | (int) LITTLE_ENDIAN.get(source, offset);
+            }
+        }
+        if(bytesPerPixel == 3 && count > 0)
+            pixels[from + count - 1] = toARGB(source, offset);
+    }
+
+    // ==================================================================================
+    // ================================ WRITING METHODS =================================
+    // ==================================================================================
+
+    /**
+     * Write one pixel in this format
+     * @param pixel (int) - ARGB pixel
+     * @param target (byte[]) - Interleaved pixels
+     * @param offset (int) - Index of the first byte of the pixel
+     * @throws AssertionError if the target is null or too small
+     */
+    public void fromARGB(int pixel, byte[] target, int offset){
+        assert target != null : "Target is null";
+        assert 0 <= offset && offset + bytesPerPixel <= target.length : "Target is too small";
+        switch(this){
+            case RGBA -> BIG_ENDIAN.set(target, offset, Integer.rotateLeft(pixel, 8));
+            case ABGR -> LITTLE_ENDIAN.set(target, offset, Integer.rotateLeft(pixel, 8));
+            case RGB -> {
+                target[offset] = (byte) (pixel >> 16);
+                target[offset + 1] = (byte) (pixel >> 8);
+                target[offset + 2] = (byte) pixel;
+            }
+            case BGR -> {
+                target[offset] = (byte) pixel;
+                target[offset + 1] = (byte) (pixel >> 8);
+                target[offset + 2] = (byte) (pixel >> 16);
+            }
+        }
+    }
+
+    /**
+     * Write consecutive pixels in this format
+     * @param pixels (int[]) - ARGB pixels
+     * @param from (int) - Index in pixels of the first pixel
+     * @param count (int) - Number of pixels to write
+     * @param target (byte[]) - Where to store the interleaved pixels
+     * @param offset (int) - Index of the first byte of the first pixel
+     * @throws AssertionError if one of the arrays is null or too small
+     */
+    public void fromARGB(int[] pixels, int from, int count, byte[] target, int offset){
+        assert pixels != null : "Pixels is null";
+        assert target != null : "Target is null";
+        assert count >= 0 && 0 <= from && from + count <= pixels.length : "Pixels is too small";
+        assert 0 <= offset && offset + (long) count * bytesPerPixel <= target.length : "Target is too small";
+
+        switch(this){
+            case RGBA -> {
+                for(int i = 0; i < count; i++, offset += 4)
+                    BIG_ENDIAN.set(target, offset, Integer.rotateLeft(pixels[from + i], 8));
+            }
+            case ABGR -> {
+                for(int i = 0; i < count; i++, offset += 4)
+                    LITTLE_ENDIAN.set(target, offset, Integer.rotateLeft(pixels[from + i], 8));
+            }
+            // The 4 bytes written for a pixel overlap the next one, which overwrites the extra byte.
+            // The last pixel is written byte by byte so that nothing is written after it
+            case RGB -> {
+                for(int i = 0; i < count - 1; i++, offset += 3)
+                    BIG_ENDIAN.set(target, offset, pixels[from + i] << 8);
+            }
+            case BGR -> {
+                for(int i = 0; i < count - 1; i++, offset += 3)
+                    LITTLE_ENDIAN.set(target, offset, pixels[from + i]);
+            }
+        }
+        if(bytesPerPixel == 3 && count > 0)
+            fromARGB(pixels[from + count - 1], target, offset);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,254 @@
+package cs107;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.util.Arrays;
+
+/**
+ * "Quite Ok Image" Encoder classifying blocks of pixels before writing their chunks
+ * @apiNote The pixels are encoded by blocks of BLOCK_SIZE pixels, in two passes :
+ * <ol>
+ * <li>the difference of every pixel of the block with its predecessor is computed for the four
+ * channels at once. When the module jdk.incubator.vector is present (java --add-modules jdk.incubator.vector),
+ * several pixels are subtracted byte by byte in one SIMD instruction with the Vector API, otherwise
+ * the channels of one pixel are subtracted together in an int (SWAR), in a loop without branches.
+ * The differences are stored biased by 2 so that the QOI_OP_DIFF payload can be read from them directly</li>
+ * <li>the chunks are written from the differences : the runs are found by looking for the difference
+ * of two equal pixels, the ranges of QOI_OP_DIFF and QOI_OP_LUMA are tested on the packed difference</li>
+ * </ol>
+ * The slices shorter than a block are encoded with QOIEncoder::encodePixels.
+ * The chunks are always the same as the ones of QOIEncoder::encodeData
+ * @version 1.0
+ * @since 1.0
+ */
+public final class QOIBlockEncoder {
+
+    // Utility class
+    private QOIBlockEncoder(){}
+
+    /**
+     * Number of pixels classified at once
+     */
+    public static final int BLOCK_SIZE = 256;
+
+    /**
+     * true if the differences are computed with the Vector API, the module jdk.incubator.vector being present
+     */
+    public static final boolean VECTORIZED = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+
+    // Upper bit of every byte of a packed pixel
+    private static final int HIGH_BITS = 0x80_80_80_80;
+
+    // Bias of the red, green and blue differences, the one of QOI_OP_DIFF
+    private static final int DIFF_BIAS = 0x00_02_02_02;
+
+    // Biased difference of two equal pixels
+    private static final int SAME_PIXEL = DIFF_BIAS;
+
+    // ==================================================================================
+    // ================================= ENCODING METHODS ===============================
+    // ==================================================================================
+
+    /**
+     * Encode the given image rows using the "Quite Ok Image" Protocol
+     * @apiNote Writes the same chunks as QOIEncoder::encodeData(int[][], byte[], int)
+     * @param image (int[][]) - ARGB pixels of the image
+     * @param output (byte[]) - Array where to write the chunks
+     * @param position (int) - Index in output to start writing from
+     * @return (int) - Index in output right after the last written chunk
+     * @throws AssertionError if one of the arrays is null or the output is too small
+     */
+    public static int encodeData(int[][] image, byte[] output, int position){
+        assert image != null : "Image is null";
+        assert output != null : "Output is null";
+
+        QOIEncoder.State state = new QOIEncoder.State();
+        int[] differences = new int[BLOCK_SIZE];
+        for(int[] row : image){
+            assert row != null : "One of the rows is null";
+            assert position + 5L * row.length <= output.length : "Output is too small";
+            position = encodePixels(row, 0, row.length, state, output, position, differences);
+        }
+        return QOIEncoder.flush(state, output, position);
+    }
+
+    /**
+     * Creates the representation in memory of the "Quite Ok Image" file
+     * @apiNote Byte-identical to QOIEncoder::qoiFile
+     * @param image (Helper.Image) - Image to encode
+     * @return (byte[]) - Binary representation of the "Quite Ok File" of the image
+     * @throws AssertionError if the image is null
+     */
+    public static byte[] qoiFile(Helper.Image image){
+        assert image != null : "Image is null";
+        byte[] header = QOIEncoder.qoiHeader(image);
+        int[][] data = image.data();
+        byte[] output = new byte[QOIEncoder.maxFileSize(data[0].length, data.length)];
+
+        System.arraycopy(header, 0, output, 0, header.length);
+        int position = encodeData(data, output, header.length);
+        System.arraycopy(QOISpecification.QOI_EOF, 0, output, position, QOISpecification.QOI_EOF.length);
+        return Arrays.copyOf(output, position + QOISpecification.QOI_EOF.length);
+    }
+
+    /**
+     * Encode a slice of packed pixels block after block, keeping the pending run in the state
+     * @apiNote Same chunks and same state as QOIEncoder::encodePixels
+     * @param pixels (int[]) - ARGB pixels
+     * @param from (int) - Index of the first pixel to encode
+     * @param to (int) - Index after the last pixel to encode
+     * @param state (QOIEncoder.State) - Encoder state, updated in place
+     * @param output (byte[]) - Array where to write the chunks (at least 5 bytes per pixel available)
+     * @param position (int) - Index in output to start writing from
+     * @param differences (int[]) - Scratch array of BLOCK_SIZE differences
+     * @return (int) - Index in output right after the last written chunk
+     */
+    static int encodePixels(int[] pixels, int from, int to, QOIEncoder.State state, byte[] output, int position, int[] differences){
+        int block = from;
+        for(; block + BLOCK_SIZE <= to; block += BLOCK_SIZE){
+            classify(pixels, block, state.previous, differences, VECTORIZED);
+            position = emit(pixels, block, differences, state, output, position);
+        }
+        return QOIEncoder.encodePixels(pixels, block, to, state, output, position);
+    }
+
+    /**
+     * Compute the biased differences of BLOCK_SIZE pixels with their predecessor
+     * @param pixels (int[]) - ARGB pixels
+     * @param from (int) - Index of the first pixel of the block
+     * @param previous (int) - ARGB pixel before the block
+     * @param differences (int[]) - Where to store the differences
+     * @param vectorized (boolean) - Use the Vector API, only if the module jdk.incubator.vector is present
+     */
+    static void classify(int[] pixels, int from, int previous, int[] differences, boolean vectorized){
+        differences[0] = difference(pixels[from], previous);
+        int i = 1;
+        if(vectorized)
+            i = Vectors.classify(pixels, from, differences);
+        for(; i < BLOCK_SIZE; i++){
+            differences[i] = difference(pixels[from + i], pixels[from + i - 1]);
+        }
+    }
+
+    /**
+     * Difference of two packed pixels, channel by channel modulo 256, plus DIFF_BIAS
+     * @param pixel (int) - ARGB pixel
+     * @param previous (int) - ARGB previous pixel
+     * @return (int) - Biased differences of the alpha, red, green and blue channels, one per byte
+     */
+    static int difference(int pixel, int previous){
+        // The upper bit of every byte is set in pixel and cleared in previous so that no borrow crosses a byte
+        int difference = ((pixel | HIGH_BITS) - (previous & ~HIGH_BITS)) ^ ((pixel ^ ~previous) & HIGH_BITS);
+        return ((difference & ~HIGH_BITS) + DIFF_BIAS) ^ (difference & HIGH_BITS);
+    }
+
+    /**
+     * Differences computed with the Vector API
+     * @apiNote Only loaded when the module jdk.incubator.vector is present (See QOIBlockEncoder::VECTORIZED)
+     */
+    private static final class Vectors {
+
+        private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+        // DIFF_BIAS in every pixel, seen as bytes
+        private static final ByteVector BIAS = IntVector.broadcast(SPECIES, DIFF_BIAS).reinterpretAsBytes();
+
+        /**
+         * Compute the biased differences of the pixels of a block with their predecessor,
+         * from its second pixel and as long as whole vectors fit in the block
+         * @param pixels (int[]) - ARGB pixels
+         * @param from (int) - Index of the first pixel of the block
+         * @param differences (int[]) - Where to store the differences
+         * @return (int) - Index in the block of the first difference left to compute
+         */
+        static int classify(int[] pixels, int from, int[] differences){
+            int i = 1;
+            for(; i + SPECIES.length() <= BLOCK_SIZE; i += SPECIES.length()){
+                // Subtracting bytes wraps modulo 256 in each channel, as QOIBlockEncoder::difference
+                var pixel = IntVector.fromArray(SPECIES, pixels, from + i).reinterpretAsBytes();
+                var previous = IntVector.fromArray(SPECIES, pixels, from + i - 1).reinterpretAsBytes();
+                pixel.sub(previous).add(BIAS).reinterpretAsInts().intoArray(differences, i);
+            }
+            return i;
+        }
+    }
+
+    /**
+     * Write the chunks of a block from the differences of its pixels
+     * @param pixels (int[]) - ARGB pixels
+     * @param from (int) - Index of the first pixel of the block
+     * @param differences (int[]) - Biased differences of the pixels of the block (See QOIBlockEncoder::difference)
+     * @param state (QOIEncoder.State) - Encoder state, updated in place
+     * @param output (byte[]) - Array where to write the chunks
+     * @param position (int) - Index in output to start writing from
+     * @return (int) - Index in output right after the last written chunk
+     */
+    private static int emit(int[] pixels, int from, int[] differences, QOIEncoder.State state, byte[] output, int position){
+        int run = state.run;
+        int[] hashTable = state.hashTable;
+        int i = 0;
+        while(i < BLOCK_SIZE){
+            int difference = differences[i];
+            if(difference == SAME_PIXEL){
+                int end = i + 1;
+                while(end < BLOCK_SIZE && differences[end] == SAME_PIXEL){
+                    end++;
+                }
+                run += end - i;
+                while(run >= 62){
+                    output[position++] = (byte)(61 | QOISpecification.QOI_OP_RUN_TAG);
+                    run -= 62;
+                }
+                i = end;
+                continue;
+            }
+            if(run != 0){
+                output[position++] = (byte)((run - 1) | QOISpecification.QOI_OP_RUN_TAG);
+                run = 0;
+            }
+
+            int pixel = pixels[from + i++];
+            int hash = QOISpecification.hash(pixel);
+            if(hashTable[hash] == pixel){
+                output[position++] = (byte)(hash | QOISpecification.QOI_OP_INDEX_TAG);
+                continue;
+            }
+            hashTable[hash] = pixel;
+
+            if((difference & 0xFF_FC_FC_FC) == 0){
+                // Same alpha and the three biased differences between 0 and 3
+                output[position++] = (byte)(QOISpecification.QOI_OP_DIFF_TAG
+                        | (difference >> 12) & 0b11_00_00 | (difference >> 6) & 0b00_11_00 | difference & 0b00_00_11);
+                continue;
+            }
+            if((difference >>> 24) == 0){
+                byte dg = (byte)((difference >> 8) - 2);
+                byte dRG = (byte)((difference >> 16) - (difference >> 8));
+                byte dBG = (byte)(difference - (difference >> 8));
+                if((dg > -33 && dg < 32) && (dRG > -9 && dRG < 8) && (dBG > -9 && dBG < 8)){
+                    output[position] = (byte)(QOISpecification.QOI_OP_LUMA_TAG | (dg + 32));
+                    output[position + 1] = (byte)((dRG + 8) << 4 | (dBG + 8));
+                    position += 2;
+                    continue;
+                }
+                output[position] = QOISpecification.QOI_OP_RGB_TAG;
+                output[position + 1] = (byte)(pixel >> 16);
+                output[position + 2] = (byte)(pixel >> 8);
+                output[position + 3] = (byte) pixel;
+                position += 4;
+                continue;
+            }
+            output[position] = QOISpecification.QOI_OP_RGBA_TAG;
+            output[position + 1] = (byte)(pixel >> 16);
+            output[position + 2] = (byte)(pixel >> 8);
+            output[position + 3] = (byte) pixel;
+            output[position + 4] = (byte)(pixel >>> 24);
+            position += 5;
+        }
+        state.previous = pixels[from + BLOCK_SIZE - 1];
+        state.run = run;
+        return position;
+    }
+}
\ No newline at end of file
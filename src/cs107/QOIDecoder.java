@@ -1,5 +1,9 @@
 package cs107;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
 import static cs107.Helper.Image;
 
 /**
@@ -179,6 +183,9 @@ public final class QOIDecoder {
     public static byte[][] decodeData(byte[] data, int width, int height){
         assert data != null : "Data is null";
         assert width >= 0 && height >= 0: "width and height are not valid";
+        assert (long) width * height <= Integer.MAX_VALUE - 8 : "Image is too large for one array of pixels";
+        long started = QOIMetrics.start();
+        QOIEvents.Decode event = QOIEvents.decode();
         byte[] ancien = QOISpecification.START_PIXEL;
         byte[][] result = new byte[height * width][4];
         byte[][] hashTable = new byte [64][4];
@@ -226,6 +233,9 @@ public final class QOIDecoder {
         }
         assert position == height * width - 1: "Result invalid";
 
+        event.end();
+        QOIMetrics.decoded(data, 0, data.length, (long) height * width, started);
+        QOIEvents.decoded(event, data, 0, data.length, width, height, (long) height * width);
         return result;
     }
 
@@ -248,4 +258,379 @@ public final class QOIDecoder {
         return Helper.generateImage(tabResult, (byte)header[2], (byte)header[3]);
     }
 
+    // ==================================================================================
+    // ============================ PACKED DECODING METHODS =============================
+    // ==================================================================================
+
+    /**
+     * Decode the given data straight into packed ARGB pixels
+     * @apiNote Same pixels as QOIDecoder::decodeData(byte[], int, int) without
+     * allocating anything per pixel
+     * @param data (byte[]) - Array containing the chunks to decode
+     * @param start (int) - Index of the first chunk in data
+     * @param end (int) - Index after the last chunk in data
+     * @param buffer (int[]) - Buffer to fill with the ARGB pixels, row after row
+     * @throws AssertionError if one of the arrays is null, the bounds are invalid
+     * or the chunks do not describe exactly buffer.length pixels
+     */
+    public static void decodeData(byte[] data, int start, int end, int[] buffer){
+        assert data != null : "Data is null";
+        assert buffer != null : "Buffer is null";
+        assert 0 <= start && start <= end && end <= data.length : "Bounds are invalid";
+
+        long started = QOIMetrics.start();
+        QOIEvents.Decode event = QOIEvents.decode();
+        State state = new State();
+        state.idx = start;
+        int decoded = decodePixels(data, end, state, buffer, 0, buffer.length);
+        assert decoded == buffer.length && state.idx == end && state.run == 0 : "Result invalid";
+        event.end();
+        QOIMetrics.decoded(data, start, end, buffer.length, started);
+        QOIEvents.decoded(event, data, start, end, 0, 0, buffer.length);
+    }
+
+    /**
+     * Decode the given data straight into the rows of an image
+     * @param data (byte[]) - Array containing the chunks to decode
+     * @param start (int) - Index of the first chunk in data
+     * @param end (int) - Index after the last chunk in data
+     * @param image (int[][]) - Rows to fill with the ARGB pixels
+     * @throws AssertionError if one of the arrays is null, the bounds are invalid
+     * or the chunks do not describe exactly the pixels of the image
+     */
+    public static void decodeData(byte[] data, int start, int end, int[][] image){
+        assert data != null : "Data is null";
+        assert image != null : "Image is null";
+        assert 0 <= start && start <= end && end <= data.length : "Bounds are invalid";
+
+        long started = QOIMetrics.start();
+        QOIEvents.Decode event = QOIEvents.decode();
+        State state = new State();
+        state.idx = start;
+        long pixels = 0;
+        for(int[] row : image){
+            assert row != null : "One of the rows is null";
+            int decoded = decodePixels(data, end, state, row, 0, row.length);
+            assert decoded == row.length : "Data is too short";
+            pixels += decoded;
+        }
+        assert state.idx == end && state.run == 0 : "Result invalid";
+        event.end();
+        QOIMetrics.decoded(data, start, end, pixels, started);
+        QOIEvents.decoded(event, data, start, end, image.length == 0 ? 0 : image[0].length, image.length, pixels);
+    }
+
+    /**
+     * Decode the given data straight into the pixels of a buffer
+     * @apiNote Same pixels as QOIDecoder::decodeData(byte[], int, int, int[][]). The pixels of a flat
+     * int[] buffer are decoded in place, the other backends are filled row by row
+     * @param data (byte[]) - Array containing the chunks to decode
+     * @param start (int) - Index of the first chunk in data
+     * @param end (int) - Index after the last chunk in data
+     * @param image (PixelBuffer) - Buffer to fill with the ARGB pixels
+     * @throws AssertionError if the data or the image is null, the bounds are invalid
+     * or the chunks do not describe exactly the pixels of the image
+     */
+    public static void decodeData(byte[] data, int start, int end, PixelBuffer image){
+        assert data != null : "Data is null";
+        assert image != null : "Image is null";
+        assert 0 <= start && start <= end && end <= data.length : "Bounds are invalid";
+
+        long started = QOIMetrics.start();
+        QOIEvents.Decode event = QOIEvents.decode();
+        State state = new State();
+        state.idx = start;
+        int width = image.width();
+        int[] row = image instanceof PixelBuffer.Ints ? null : new int[width];
+        for(int y = 0; y < image.height(); y++){
+            int decoded;
+            if(image instanceof PixelBuffer.Ints ints){
+                decoded = decodePixels(data, end, state, ints.pixels, ints.rowStart(y), width);
+            } else {
+                decoded = decodePixels(data, end, state, row, 0, width);
+                image.setRow(y, row, 0);
+            }
+            assert decoded == width : "Data is too short";
+        }
+        assert state.idx == end && state.run == 0 : "Result invalid";
+        event.end();
+        QOIMetrics.decoded(data, start, end, (long) width * image.height(), started);
+        QOIEvents.decoded(event, data, start, end, width, image.height(), (long) width * image.height());
+    }
+
+    /**
+     * Decode a file using the "Quite Ok Image" Protocol, in a single pass
+     * @apiNote Same image as QOIDecoder::decodeQoiFile, but the pixels are written directly
+     * in the rows of the image (no byte[][] buffer and no call to ArrayUtils::channelsToImage)
+     * @param content (byte[]) - Content of the file to decode
+     * @return (Image) - Decoded image
+     * @throws AssertionError if content is null or corrupted
+     */
+    public static Image decodeQoiFilePacked(byte[] content){
+        assert content != null : "Content is null";
+        int eofStart = content.length - QOISpecification.QOI_EOF.length;
+        assert eofStart >= QOISpecification.HEADER_SIZE : "Content is too short";
+        assert Arrays.equals(content, eofStart, content.length, QOISpecification.QOI_EOF, 0, QOISpecification.QOI_EOF.length)
+                : "La signature de fin de fichier est corrompue";
+
+        int[] header = decodeHeader(ArrayUtils.extract(content, 0, QOISpecification.HEADER_SIZE));
+        int[][] data = new int[header[1]][header[0]];
+        decodeData(content, QOISpecification.HEADER_SIZE, eofStart, data);
+
+        return Helper.generateImage(data, (byte)header[2], (byte)header[3]);
+    }
+
+    /**
+     * Size of the window the chunks of a buffer are copied in by QOIDecoder::decodeQoiFile(ByteBuffer)
+     */
+    public static final int WINDOW_SIZE = 1 << 16;
+
+    /**
+     * Decode a file using the "Quite Ok Image" Protocol, reading the chunks through a small window
+     * @apiNote Meant to be used with Helper::map, so that the file is decoded straight
+     * from the page cache without being copied on the heap : the chunks are copied WINDOW_SIZE bytes
+     * at a time in an array, then decoded by QOIDecoder::decodePixels like the ones of any array
+     * @param content (ByteBuffer) - Content of the file to decode, from index 0 to its limit
+     * @return (Image) - Decoded image
+     * @throws AssertionError if content is null or corrupted
+     * @throws RuntimeException if the chunks are truncated (See Helper::fail)
+     */
+    public static Image decodeQoiFile(ByteBuffer content){
+        assert content != null : "Content is null";
+        content = content.duplicate().order(ByteOrder.BIG_ENDIAN);
+        int eofStart = content.limit() - QOISpecification.QOI_EOF.length;
+        assert eofStart >= QOISpecification.HEADER_SIZE : "Content is too short";
+        for(int iByte = 0; iByte < QOISpecification.QOI_EOF.length; iByte++){
+            assert content.get(eofStart + iByte) == QOISpecification.QOI_EOF[iByte] : "La signature de fin de fichier est corrompue";
+        }
+
+        byte[] headerBytes = new byte[QOISpecification.HEADER_SIZE];
+        content.get(0, headerBytes);
+        int[] header = decodeHeader(headerBytes);
+        int[][] data = new int[header[1]][header[0]];
+
+        long started = QOIMetrics.start();
+        QOIEvents.Decode event = QOIEvents.decode();
+        State state = new State();
+        byte[] window = new byte[Math.min(WINDOW_SIZE, eofStart - QOISpecification.HEADER_SIZE)];
+        // Index in content of the first byte of the window, and number of bytes copied in the window
+        int windowStart = QOISpecification.HEADER_SIZE;
+        int filled = 0;
+        for(int[] row : data){
+            int decoded = 0;
+            while(decoded < row.length){
+                // Until the window reaches the end of the chunks, its last bytes may belong to an incomplete chunk
+                boolean last = windowStart + filled == eofStart;
+                decoded += decodePixels(window, last ? filled : filled - 4, state, row, decoded, row.length - decoded);
+                if(decoded == row.length)
+                    break;
+                if(last)
+                    Helper.fail("Data is too short%n");
+                int remaining = filled - state.idx;
+                System.arraycopy(window, state.idx, window, 0, remaining);
+                windowStart += state.idx;
+                state.idx = 0;
+                int length = Math.min(window.length - remaining, eofStart - windowStart - remaining);
+                content.get(windowStart + remaining, window, remaining, length);
+                filled = remaining + length;
+            }
+        }
+        assert windowStart + state.idx == eofStart && state.run == 0 : "Result invalid";
+        event.end();
+        QOIMetrics.decoded(content, QOISpecification.HEADER_SIZE, eofStart, (long) header[0] * header[1], started);
+        QOIEvents.decoded(event, content, QOISpecification.HEADER_SIZE, eofStart, header[0], header[1], (long) header[0] * header[1]);
+
+        return Helper.generateImage(data, (byte)header[2], (byte)header[3]);
+    }
+
+    // Kinds of chunk, stored in the 8 upper bits of the entries of OPCODES
+    private static final int KIND_RGB = 0;
+    private static final int KIND_RGBA = 1;
+    private static final int KIND_INDEX = 2;
+    private static final int KIND_DIFF = 3;
+    private static final int KIND_LUMA = 4;
+    private static final int KIND_RUN = 5;
+
+    /**
+     * Kind of the chunk starting with each byte, and its payload decoded in advance in the 24 lower bits :
+     * slot for QOI_OP_INDEX, packed differences for QOI_OP_DIFF, green difference on every channel
+     * for QOI_OP_LUMA, length for QOI_OP_RUN (See QOIDecoder::addPacked)
+     */
+    private static final int[] OPCODES = new int[256];
+
+    /**
+     * Packed differences to the green one given by the second byte of QOI_OP_LUMA (red and blue channels)
+     */
+    private static final int[] LUMA_DIFFERENCES = new int[256];
+
+    static {
+        for(int chunk = 0; chunk < 256; chunk++){
+            int payload = chunk & 0b00_11_11_11;
+            OPCODES[chunk] = switch(chunk & 0b11_00_00_00){
+                case QOISpecification.QOI_OP_INDEX_TAG -> KIND_INDEX << 24 | payload;
+                case QOISpecification.QOI_OP_DIFF_TAG ->
+                        KIND_DIFF << 24 | packDifferences((payload >> 4) - 2, ((payload >> 2) & 0b11) - 2, (payload & 0b11) - 2);
+                case QOISpecification.QOI_OP_LUMA_TAG & 0xFF -> KIND_LUMA << 24 | packDifferences(payload - 32, payload - 32, payload - 32);
+                default -> KIND_RUN << 24 | (payload + 1);
+            };
+            LUMA_DIFFERENCES[chunk] = packDifferences((chunk >> 4) - 8, 0, (chunk & 0b00_00_11_11) - 8);
+        }
+        OPCODES[QOISpecification.QOI_OP_RGB_TAG & 0xFF] = KIND_RGB << 24;
+        OPCODES[QOISpecification.QOI_OP_RGBA_TAG & 0xFF] = KIND_RGBA << 24;
+    }
+
+    /**
+     * State carried from one chunk to the next while decoding
+     */
+    static final class State {
+        int previous = QOISpecification.START_PIXEL_ARGB;
+        int run = 0;
+        int idx = 0;
+        final int[] hashTable = new int[64];
+    }
+
+    /**
+     * Decode chunks into packed pixels until count pixels are written or no chunk starts before end.
+     * A run crossing the end of the buffer is kept in the state and resumed by the next call
+     * @param data (byte[]) - Array containing the chunks, read from state.idx
+     * @param end (int) - No chunk starting at or after this index is decoded.
+     * Every chunk starting before it must be complete in data
+     * @param state (State) - Decoder state, updated in place
+     * @param buffer (int[]) - Buffer where to write the ARGB pixels
+     * @param position (int) - Index in buffer to start writing from
+     * @param count (int) - Maximum number of pixels to write
+     * @return (int) - Number of pixels written
+     */
+    static int decodePixels(byte[] data, int end, State state, int[] buffer, int position, int count){
+        int previous = state.previous;
+        int run = state.run;
+        int idx = state.idx;
+        int[] hashTable = state.hashTable;
+        int iPixel = position;
+        int limit = position + count;
+
+        while(iPixel < limit){
+            if(run > 0){
+                int length = Math.min(run, limit - iPixel);
+                Arrays.fill(buffer, iPixel, iPixel + length, previous);
+                iPixel += length;
+                run -= length;
+                continue;
+            }
+            if(idx >= end)
+                break;
+
+            int opcode = OPCODES[data[idx] & 0xFF];
+            int kind = opcode >>> 24;
+            int pixel;
+            // Kinds tested from the most to the least frequent in usual images (a switch is slower on long runs)
+            if(kind == KIND_INDEX){
+                pixel = hashTable[opcode & 0b00_11_11_11];
+                idx += 1;
+            } else if(kind == KIND_RUN){
+                run = opcode & 0xFF;
+                hashTable[QOISpecification.hash(previous)] = previous;
+                idx += 1;
+                continue;
+            } else if(kind == KIND_DIFF){
+                pixel = addPacked(previous, opcode);
+                idx += 1;
+            } else if(kind == KIND_LUMA){
+                pixel = addPacked(previous, addPacked(opcode, LUMA_DIFFERENCES[data[idx + 1] & 0xFF]));
+                idx += 2;
+            } else if(kind == KIND_RGB){
+                pixel = (previous & 0xFF_00_00_00) | (data[idx + 1] & 0xFF) << 16 | (data[idx + 2] & 0xFF) << 8 | (data[idx + 3] & 0xFF);
+                idx += 4;
+            } else {
+                pixel = (data[idx + 4] & 0xFF) << 24 | (data[idx + 1] & 0xFF) << 16 | (data[idx + 2] & 0xFF) << 8 | (data[idx + 3] & 0xFF);
+                idx += 5;
+            }
+            hashTable[QOISpecification.hash(pixel)] = pixel;
+            buffer[iPixel++] = pixel;
+            previous = pixel;
+        }
+
+        state.previous = previous;
+        state.run = run;
+        state.idx = idx;
+        return iPixel - position;
+    }
+
+    /**
+     * Decode a range of pixels into the rows of an image, the pixels being numbered row after row
+     * @param data (byte[]) - Array containing the chunks, read from state.idx
+     * @param end (int) - No chunk starting at or after this index is decoded
+     * @param state (State) - Decoder state, updated in place
+     * @param image (int[][]) - Rows where to write the ARGB pixels, all of the same length
+     * @param from (long) - Number of the first pixel to write
+     * @param count (long) - Number of pixels to write
+     * @throws AssertionError if the chunks describe less than count pixels
+     */
+    static void decodeRange(byte[] data, int end, State state, int[][] image, long from, long count){
+        int width = image[0].length;
+        long pixel = from;
+        long last = from + count;
+        while(pixel < last){
+            int column = (int) (pixel % width);
+            int length = (int) Math.min(width - column, last - pixel);
+            int decoded = decodePixels(data, end, state, image[(int) (pixel / width)], column, length);
+            assert decoded == length : "Data is too short";
+            pixel += length;
+        }
+    }
+
+    /**
+     * Number of bytes of the chunk starting with the given byte
+     * @param tag (byte) - First byte of a chunk
+     * @return (int) - Length of the chunk, tag included
+     */
+    static int chunkLength(byte tag){
+        if(tag == QOISpecification.QOI_OP_RGB_TAG)
+            return 4;
+        if(tag == QOISpecification.QOI_OP_RGBA_TAG)
+            return 5;
+        if((byte)(tag & 0b11_00_00_00) == QOISpecification.QOI_OP_LUMA_TAG)
+            return 2;
+        return 1;
+    }
+
+    /**
+     * Add packed differences to the red, green and blue channels of a packed pixel, modulo 256,
+     * without carry from one channel to the next
+     * @param pixel (int) - ARGB pixel
+     * @param differences (int) - Differences of the red, green and blue channels, one per byte (See packDifferences).
+     * Its upper byte is ignored
+     * @return (int) - The new ARGB pixel, with the same alpha
+     */
+    static int addPacked(int pixel, int differences){
+        // The 7 lower bits of every channel are added, then the upper bit of each sum is fixed
+        int sum = ((pixel & 0x00_7F_7F_7F) + (differences & 0x00_7F_7F_7F)) ^ ((pixel ^ differences) & 0x00_80_80_80);
+        return (pixel & 0xFF_00_00_00) | sum;
+    }
+
+    /**
+     * Pack differences of the red, green and blue channels, one per byte, for QOIDecoder::addPacked
+     * @param dr (int) - Difference on the red channel
+     * @param dg (int) - Difference on the green channel
+     * @param db (int) - Difference on the blue channel
+     * @return (int) - The differences, modulo 256, in the three lower bytes
+     */
+    static int packDifferences(int dr, int dg, int db){
+        return (dr & 0xFF) << 16 | (dg & 0xFF) << 8 | (db & 0xFF);
+    }
+
+    /**
+     * Add the given differences to the red, green and blue channels of a packed pixel (modulo 256)
+     * @param pixel (int) - ARGB pixel
+     * @param dr (int) - Difference on the red channel
+     * @param dg (int) - Difference on the green channel
+     * @param db (int) - Difference on the blue channel
+     * @return (int) - The new ARGB pixel, with the same alpha
+     */
+    static int addToChannels(int pixel, int dr, int dg, int db){
+        return (pixel & 0xFF_00_00_00)
+                | (((pixel >> 16) + dr) & 0xFF) << 16
+                | (((pixel >> 8) + dg) & 0xFF) << 8
+                | ((pixel + db) & 0xFF);
+    }
 }
\ No newline at end of file
@@ -1,6 +1,7 @@
 package cs107;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * "Quite Ok Image" Encoder
@@ -34,14 +35,28 @@ public final class QOIEncoder {
         byte colorSpace = image.color_space();
         assert colorSpace == QOISpecification.sRGB || colorSpace == QOISpecification.ALL : "Colorspace is corrupted";
 
-        int[][] imageData = image.data();
-        int height = imageData.length;
-        int width = imageData[0].length;
+        PixelBuffer pixels = image.pixels();
+        return qoiHeader(pixels.width(), pixels.height(), channelNumber, colorSpace);
+    }
+
+    /**
+     * Generate a "Quite Ok Image" header from the dimensions and format of the image
+     * @param width (int) - Width of the image
+     * @param height (int) - Height of the image
+     * @param channels (byte) - Number of channels
+     * @param colorSpace (byte) - Color space
+     * @throws AssertionError if the colorspace or the number of channels is corrupted
+     * @return (byte[]) - Corresponding "Quite Ok Image" Header
+     */
+    public static byte[] qoiHeader(int width, int height, byte channels, byte colorSpace){
+        assert channels == QOISpecification.RGB || channels == QOISpecification.RGBA : "Number of channels is corrupted";
+        assert colorSpace == QOISpecification.sRGB || colorSpace == QOISpecification.ALL : "Colorspace is corrupted";
+
         byte[] result =  ArrayUtils.concat(
                 QOISpecification.QOI_MAGIC,
                 ArrayUtils.fromInt(width),
                 ArrayUtils.fromInt(height),
-                ArrayUtils.wrap(channelNumber),
+                ArrayUtils.wrap(channels),
                 ArrayUtils.wrap(colorSpace));
         return result;
     }
@@ -163,6 +178,8 @@ public final class QOIEncoder {
      */
     public static byte[] encodeData(byte[][] image){
         assert image != null : "Image is null";
+        long started = QOIMetrics.start();
+        QOIEvents.Encode event = QOIEvents.encode();
         byte[] ancien = QOISpecification.START_PIXEL;
         byte[][] hashTable = new byte[64][4];
         int compteur = 0;
@@ -221,7 +238,11 @@ public final class QOIEncoder {
             tab.add(qoiOpRGBA(image[iPixel]));
         }
         byte[][] result = new byte[tab.size()][];
-        return ArrayUtils.concat(tab.toArray(result));
+        byte[] data = ArrayUtils.concat(tab.toArray(result));
+        event.end();
+        QOIMetrics.encoded(data, 0, data.length, image.length, started);
+        QOIEvents.encoded(event, data, 0, data.length, 0, 0, image.length);
+        return data;
     }
 
     /**
@@ -239,4 +260,252 @@ public final class QOIEncoder {
         byte[] body = encodeData(ArrayUtils.imageToChannels(image.data()));
         return ArrayUtils.concat(header, body, signature);
     }
+
+    // ==================================================================================
+    // ============================= PACKED ENCODING METHODS ============================
+    // ==================================================================================
+
+    /**
+     * Worst case size of a "Quite Ok Image" file (every pixel encoded with QOI_OP_RGBA)
+     * @param width (int) - Width of the image
+     * @param height (int) - Height of the image
+     * @return (int) - Number of bytes that is always enough to store the encoded file
+     * @throws AssertionError if the dimensions are negative or the bound does not fit in an array
+     */
+    public static int maxFileSize(int width, int height){
+        assert width >= 0 && height >= 0 : "Width or height is invalid";
+        long size = QOISpecification.HEADER_SIZE + 5L * width * height + QOISpecification.QOI_EOF.length;
+        assert size <= Integer.MAX_VALUE - 8 : "Image is too large to be encoded in one array";
+        return (int) size;
+    }
+
+    /**
+     * Encode the given packed pixels using the "Quite Ok Image" Protocol
+     * @apiNote Produces the same bytes as QOIEncoder::encodeData(byte[][])
+     * without allocating anything per pixel
+     * @param pixels (int[]) - ARGB pixels of the image, row after row
+     * @param output (byte[]) - Array where to write the chunks
+     * @param position (int) - Index in output to start writing from
+     * @return (int) - Index in output right after the last written chunk
+     * @throws AssertionError if one of the arrays is null or the output is too small
+     */
+    public static int encodeData(int[] pixels, byte[] output, int position){
+        assert pixels != null : "Pixels is null";
+        assert output != null : "Output is null";
+        assert position >= 0 && position + 5L * pixels.length <= output.length : "Output is too small";
+
+        long started = QOIMetrics.start();
+        QOIEvents.Encode event = QOIEvents.encode();
+        State state = new State();
+        int end = encodePixels(pixels, 0, pixels.length, state, output, position);
+        end = flush(state, output, end);
+        event.end();
+        QOIMetrics.encoded(output, position, end, pixels.length, started);
+        QOIEvents.encoded(event, output, position, end, 0, 0, pixels.length);
+        return end;
+    }
+
+    /**
+     * Encode the given image rows using the "Quite Ok Image" Protocol
+     * @apiNote Same as QOIEncoder::encodeData(int[], byte[], int) but works directly on Helper.Image::data
+     * @param image (int[][]) - ARGB pixels of the image
+     * @param output (byte[]) - Array where to write the chunks
+     * @param position (int) - Index in output to start writing from
+     * @return (int) - Index in output right after the last written chunk
+     * @throws AssertionError if one of the arrays is null or the output is too small
+     */
+    public static int encodeData(int[][] image, byte[] output, int position){
+        assert image != null : "Image is null";
+        assert output != null : "Output is null";
+
+        long started = QOIMetrics.start();
+        QOIEvents.Encode event = QOIEvents.encode();
+        State state = new State();
+        int end = position;
+        long pixels = 0;
+        for(int[] row : image){
+            assert row != null : "One of the rows is null";
+            assert end + 5L * row.length <= output.length : "Output is too small";
+            end = encodePixels(row, 0, row.length, state, output, end);
+            pixels += row.length;
+        }
+        end = flush(state, output, end);
+        event.end();
+        QOIMetrics.encoded(output, position, end, pixels, started);
+        QOIEvents.encoded(event, output, position, end, image.length == 0 ? 0 : image[0].length, image.length, pixels);
+        return end;
+    }
+
+    /**
+     * Encode the pixels of a buffer using the "Quite Ok Image" Protocol
+     * @apiNote Same chunks as QOIEncoder::encodeData(int[][], byte[], int). The pixels of a flat
+     * int[] buffer or of int[] rows are encoded in place, the other backends are copied row by row
+     * @param image (PixelBuffer) - ARGB pixels of the image
+     * @param output (byte[]) - Array where to write the chunks
+     * @param position (int) - Index in output to start writing from
+     * @return (int) - Index in output right after the last written chunk
+     * @throws AssertionError if the image or the output is null or the output is too small
+     */
+    public static int encodeData(PixelBuffer image, byte[] output, int position){
+        assert image != null : "Image is null";
+        assert output != null : "Output is null";
+        assert position >= 0 && position + 5L * image.width() * image.height() <= output.length : "Output is too small";
+
+        long started = QOIMetrics.start();
+        QOIEvents.Encode event = QOIEvents.encode();
+        State state = new State();
+        int width = image.width();
+        int[] row = image instanceof PixelBuffer.Ints || image instanceof PixelBuffer.Rows ? null : new int[width];
+        int end = position;
+        for(int y = 0; y < image.height(); y++){
+            if(image instanceof PixelBuffer.Ints ints){
+                int first = ints.rowStart(y);
+                end = encodePixels(ints.pixels, first, first + width, state, output, end);
+            } else if(image instanceof PixelBuffer.Rows rows){
+                end = encodePixels(rows.rows[rows.firstRow + y], rows.column, rows.column + width, state, output, end);
+            } else {
+                image.getRow(y, row, 0);
+                end = encodePixels(row, 0, width, state, output, end);
+            }
+        }
+        end = flush(state, output, end);
+        event.end();
+        QOIMetrics.encoded(output, position, end, (long) width * image.height(), started);
+        QOIEvents.encoded(event, output, position, end, width, image.height(), (long) width * image.height());
+        return end;
+    }
+
+    /**
+     * Creates the representation in memory of the "Quite Ok Image" file
+     * working on the packed pixels of the image
+     * @apiNote Byte-identical to QOIEncoder::qoiFile, but the chunks are written in
+     * a single preallocated array instead of one array per chunk
+     * @param image (Helper.Image) - Image to encode
+     * @return (byte[]) - Binary representation of the "Quite Ok File" of the image
+     * @throws AssertionError if the image is null
+     */
+    public static byte[] qoiFilePacked(Helper.Image image){
+        assert image != null : "Image is null";
+        byte[] header = qoiHeader(image);
+        PixelBuffer pixels = image.pixels();
+        byte[] output = new byte[maxFileSize(pixels.width(), pixels.height())];
+
+        System.arraycopy(header, 0, output, 0, header.length);
+        // In place whatever the backend storing the pixels
+        int position = encodeData(pixels, output, header.length);
+        System.arraycopy(QOISpecification.QOI_EOF, 0, output, position, QOISpecification.QOI_EOF.length);
+        return Arrays.copyOf(output, position + QOISpecification.QOI_EOF.length);
+    }
+
+    /**
+     * State carried from one pixel to the next while encoding
+     */
+    static final class State {
+        int previous = QOISpecification.START_PIXEL_ARGB;
+        int run = 0;
+        final int[] hashTable = new int[64];
+    }
+
+    /**
+     * Encode a slice of packed pixels, keeping the pending run in the state
+     * @param pixels (int[]) - ARGB pixels
+     * @param from (int) - Index of the first pixel to encode
+     * @param to (int) - Index after the last pixel to encode
+     * @param state (State) - Encoder state, updated in place
+     * @param output (byte[]) - Array where to write the chunks (at least 5 bytes per pixel available)
+     * @param position (int) - Index in output to start writing from
+     * @return (int) - Index in output right after the last written chunk
+     */
+    static int encodePixels(int[] pixels, int from, int to, State state, byte[] output, int position){
+        int previous = state.previous;
+        int run = state.run;
+        int[] hashTable = state.hashTable;
+        for(int iPixel = from; iPixel < to; iPixel++){
+            int pixel = pixels[iPixel];
+            if(pixel == previous){
+                run++;
+                if(run == 62){
+                    output[position++] = (byte)((run - 1) | QOISpecification.QOI_OP_RUN_TAG);
+                    run = 0;
+                }
+                continue;
+            }
+            if(run != 0){
+                output[position++] = (byte)((run - 1) | QOISpecification.QOI_OP_RUN_TAG);
+                run = 0;
+            }
+            position = encodePixel(pixel, previous, hashTable, output, position);
+            previous = pixel;
+        }
+        state.previous = previous;
+        state.run = run;
+        return position;
+    }
+
+    /**
+     * Write the pending run of the state, if any
+     * @param state (State) - Encoder state, updated in place
+     * @param output (byte[]) - Array where to write the chunk
+     * @param position (int) - Index in output to write to
+     * @return (int) - Index in output right after the written chunk
+     */
+    static int flush(State state, byte[] output, int position){
+        if(state.run != 0){
+            output[position++] = (byte)((state.run - 1) | QOISpecification.QOI_OP_RUN_TAG);
+            state.run = 0;
+        }
+        return position;
+    }
+
+    /**
+     * Encode a pixel different from the previous one with the smallest possible chunk
+     * (QOI_OP_INDEX, QOI_OP_DIFF, QOI_OP_LUMA, QOI_OP_RGB or QOI_OP_RGBA)
+     * @param pixel (int) - ARGB pixel to encode
+     * @param previous (int) - ARGB previous pixel
+     * @param hashTable (int[]) - The 64 last seen pixels, updated in place
+     * @param output (byte[]) - Array where to write the chunk
+     * @param position (int) - Index in output to write to
+     * @return (int) - Index in output right after the written chunk
+     */
+    static int encodePixel(int pixel, int previous, int[] hashTable, byte[] output, int position){
+        int hash = QOISpecification.hash(pixel);
+        if(hashTable[hash] == pixel){
+            output[position] = (byte)(hash | QOISpecification.QOI_OP_INDEX_TAG);
+            return position + 1;
+        }
+        hashTable[hash] = pixel;
+
+        if(((pixel ^ previous) >>> 24) == 0){
+            byte dr = (byte)((pixel >> 16) - (previous >> 16));
+            byte dg = (byte)((pixel >> 8) - (previous >> 8));
+            byte db = (byte)(pixel - previous);
+
+            if((dr > -3 && dr < 2) && (dg > -3 && dg < 2) && (db > -3 && db < 2)){
+                output[position] = (byte)(QOISpecification.QOI_OP_DIFF_TAG | (dr + 2) << 4 | (dg + 2) << 2 | (db + 2));
+                return position + 1;
+            }
+
+            byte dRG = (byte)(dr - dg);
+            byte dBG = (byte)(db - dg);
+
+            if((dg > -33 && dg < 32) && (dRG > -9 && dRG < 8) && (dBG > -9 && dBG < 8)){
+                output[position] = (byte)(QOISpecification.QOI_OP_LUMA_TAG | (dg + 32));
+                output[position + 1] = (byte)((dRG + 8) << 4 | (dBG + 8));
+                return position + 2;
+            }
+
+            output[position] = QOISpecification.QOI_OP_RGB_TAG;
+            output[position + 1] = (byte)(pixel >> 16);
+            output[position + 2] = (byte)(pixel >> 8);
+            output[position + 3] = (byte) pixel;
+            return position + 4;
+        }
+
+        output[position] = QOISpecification.QOI_OP_RGBA_TAG;
+        output[position + 1] = (byte)(pixel >> 16);
+        output[position + 2] = (byte)(pixel >> 8);
+        output[position + 3] = (byte) pixel;
+        output[position + 4] = (byte)(pixel >>> 24);
+        return position + 5;
+    }
 }
\ No newline at end of file
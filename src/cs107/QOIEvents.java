@@ -0,0 +1,321 @@
+package cs107;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Java Flight Recorder events of the phases of a conversion
+ * @apiNote Each phase (reading, conversion, encoding, concatenation, writing and the mirror decoding
+ * phases) is timed by an event named "cs107.*". The events cost nothing more than a check of a flag
+ * when no recording is running or when they are disabled. The opcode mix of the encoding and decoding
+ * events is only counted for the events that are committed, or while the event is enabled for the
+ * codecs working row by row, which count the chunks as they go. The settings of the file "qoi.jfc" record
+ * them all, for instance with : java -XX:StartFlightRecording:settings=qoi.jfc,filename=qoi.jfr
+ * @version 1.0
+ * @since 1.0
+ */
+public final class QOIEvents {
+
+    // Utility class
+    private QOIEvents(){}
+
+    // ==================================================================================
+    // ================================== FILE EVENTS ===================================
+    // ==================================================================================
+
+    @Name("cs107.ImageRead")
+    @Label("Image Read")
+    @Description("Image read and decoded from a standard format with Helper::readImage")
+    @Category({"QOI", "Files"})
+    static final class ImageRead extends Event {
+        @Label("Path")
+        String path;
+        @Label("Width")
+        int width;
+        @Label("Height")
+        int height;
+        @Label("Channels")
+        int channels;
+    }
+
+    @Name("cs107.ImageWrite")
+    @Label("Image Write")
+    @Description("Image encoded as PNG and written with Helper::writeImage")
+    @Category({"QOI", "Files"})
+    static final class ImageWrite extends Event {
+        @Label("Path")
+        String path;
+        @Label("Width")
+        int width;
+        @Label("Height")
+        int height;
+        @Label("Channels")
+        int channels;
+    }
+
+    @Name("cs107.FileRead")
+    @Label("File Read")
+    @Description("File read in memory with Helper::read or mapped with Helper::map")
+    @Category({"QOI", "Files"})
+    static final class FileRead extends Event {
+        @Label("Path")
+        String path;
+        @Label("Bytes Read")
+        @DataAmount(DataAmount.BYTES)
+        long bytes;
+    }
+
+    @Name("cs107.FileWrite")
+    @Label("File Write")
+    @Description("File written through a FileOutput, by Helper::write or the codecs writing to a file")
+    @Category({"QOI", "Files"})
+    static final class FileWrite extends Event {
+        @Label("Path")
+        String path;
+        @Label("Bytes Written")
+        @DataAmount(DataAmount.BYTES)
+        long bytes;
+    }
+
+    // ==================================================================================
+    // ================================= ARRAY EVENTS ===================================
+    // ==================================================================================
+
+    @Name("cs107.Conversion")
+    @Label("Conversion")
+    @Description("Pixels converted with ArrayUtils::imageToChannels or ArrayUtils::channelsToImage")
+    @Category({"QOI", "Arrays"})
+    static final class Conversion extends Event {
+        @Label("Operation")
+        String operation;
+        @Label("Width")
+        int width;
+        @Label("Height")
+        int height;
+    }
+
+    @Name("cs107.Concat")
+    @Label("Concatenation")
+    @Description("Arrays concatenated with ArrayUtils::concat")
+    @Category({"QOI", "Arrays"})
+    @StackTrace(false)
+    static final class Concat extends Event {
+        @Label("Arrays")
+        int arrays;
+        @Label("Bytes")
+        @DataAmount(DataAmount.BYTES)
+        long bytes;
+    }
+
+    // ==================================================================================
+    // ================================= CODEC EVENTS ===================================
+    // ==================================================================================
+
+    /**
+     * Common fields of the encoding and decoding events
+     */
+    abstract static class Codec extends Event {
+        @Label("Width")
+        @Description("Width of the image, 0 if the pixels are given as one flat array")
+        int width;
+        @Label("Height")
+        @Description("Height of the image, 0 if the pixels are given as one flat array")
+        int height;
+        @Label("Pixels")
+        long pixels;
+        @Label("Bytes In")
+        @DataAmount(DataAmount.BYTES)
+        long bytesIn;
+        @Label("Bytes Out")
+        @DataAmount(DataAmount.BYTES)
+        long bytesOut;
+        @Label("QOI_OP_RGB")
+        long rgb;
+        @Label("QOI_OP_RGBA")
+        long rgba;
+        @Label("QOI_OP_INDEX")
+        long index;
+        @Label("QOI_OP_DIFF")
+        long diff;
+        @Label("QOI_OP_LUMA")
+        long luma;
+        @Label("QOI_OP_RUN")
+        long run;
+
+        /**
+         * Add the opcode mix of some chunks
+         * @param tally (long[]) - Counters of QOIMetrics::tally
+         */
+        final void mix(long[] tally){
+            rgb += tally[0];
+            rgba += tally[1];
+            index += tally[2];
+            diff += tally[3];
+            luma += tally[4];
+            run += tally[5];
+        }
+    }
+
+    @Name("cs107.Encode")
+    @Label("Encode")
+    @Description("ARGB pixels (4 bytes each) encoded to QOI chunks with QOIEncoder::encodeData or QOIStreamEncoder")
+    @Category({"QOI", "Codec"})
+    static final class Encode extends Codec {}
+
+    @Name("cs107.Decode")
+    @Label("Decode")
+    @Description("QOI chunks decoded to ARGB pixels (4 bytes each) with QOIDecoder::decodeData, QOIStreamDecoder or QOIPushDecoder")
+    @Category({"QOI", "Codec"})
+    static final class Decode extends Codec {}
+
+    // ==================================================================================
+    // ================================ COMMIT METHODS ==================================
+    // ==================================================================================
+
+    /**
+     * Commit a conversion once it is done
+     * @param event (Conversion) - Started event
+     * @param operation (String) - Name of the conversion
+     * @param width (int) - Width of the image
+     * @param height (int) - Height of the image
+     */
+    static void converted(Conversion event, String operation, int width, int height){
+        event.end();
+        if(event.shouldCommit()){
+            event.operation = operation;
+            event.width = width;
+            event.height = height;
+            event.commit();
+        }
+    }
+
+    /**
+     * Start timing an encoding
+     * @return (Encode) - The started event
+     */
+    static Encode encode(){
+        var event = new Encode();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Start timing a decoding
+     * @return (Decode) - The started event
+     */
+    static Decode decode(){
+        var event = new Decode();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Commit an encoding once it is done
+     * @apiNote The event is ended by the caller before the metrics hook (See QOIMetrics::encoded),
+     * so that neither the duration of the event nor the one of the metrics includes the chunks counted by the other
+     * @param event (Encode) - Event returned by QOIEvents::encode, ended
+     * @param output (byte[]) - Array containing the chunks
+     * @param from (int) - Index of the first chunk
+     * @param to (int) - Index after the last chunk
+     * @param width (int) - Width of the image, 0 if unknown
+     * @param height (int) - Height of the image, 0 if unknown
+     * @param pixels (long) - Number of encoded pixels
+     */
+    static void encoded(Encode event, byte[] output, int from, int to, int width, int height, long pixels){
+        if(event.shouldCommit()){
+            event.mix(QOIMetrics.tally(output, from, to));
+            commit(event, to - from, width, height, pixels);
+        }
+    }
+
+    /**
+     * Commit a decoding once it is done
+     * @apiNote The event is ended by the caller before the metrics hook (See QOIMetrics::decoded),
+     * so that neither the duration of the event nor the one of the metrics includes the chunks counted by the other
+     * @param event (Decode) - Event returned by QOIEvents::decode, ended
+     * @param data (byte[]) - Array containing the chunks
+     * @param from (int) - Index of the first chunk
+     * @param to (int) - Index after the last chunk
+     * @param width (int) - Width of the image, 0 if unknown
+     * @param height (int) - Height of the image, 0 if unknown
+     * @param pixels (long) - Number of decoded pixels
+     */
+    static void decoded(Decode event, byte[] data, int from, int to, int width, int height, long pixels){
+        if(event.shouldCommit()){
+            event.mix(QOIMetrics.tally(data, from, to));
+            commit(event, to - from, width, height, pixels);
+        }
+    }
+
+    /**
+     * Commit a decoding of chunks read from a ByteBuffer
+     * @see QOIEvents#decoded(Decode, byte[], int, int, int, int, long)
+     */
+    static void decoded(Decode event, ByteBuffer data, int from, int to, int width, int height, long pixels){
+        if(event.shouldCommit()){
+            event.mix(QOIMetrics.tally(data, from, to));
+            commit(event, to - from, width, height, pixels);
+        }
+    }
+
+    /**
+     * Count the chunks of a part of a stream, while the event is enabled
+     * @apiNote The codecs working row by row no longer hold the chunks once the image is done
+     * @param event (Codec) - Started event
+     * @param data (byte[]) - Array containing the chunks
+     * @param from (int) - Index of the first chunk
+     * @param to (int) - Index after the last chunk
+     */
+    static void chunks(Codec event, byte[] data, int from, int to){
+        if(event.isEnabled())
+            event.mix(QOIMetrics.tally(data, from, to));
+    }
+
+    /**
+     * Commit the encoding of a stream whose chunks were counted with QOIEvents::chunks
+     * @param event (Encode) - Event returned by QOIEvents::encode
+     * @param bytes (long) - Number of bytes of the chunks
+     * @param width (int) - Width of the image
+     * @param height (int) - Height of the image
+     */
+    static void streamed(Encode event, long bytes, int width, int height){
+        event.end();
+        if(event.shouldCommit())
+            commit(event, bytes, width, height, (long) width * height);
+    }
+
+    /**
+     * Commit the decoding of a stream whose chunks were counted with QOIEvents::chunks
+     * @see QOIEvents#streamed(Encode, long, int, int)
+     */
+    static void streamed(Decode event, long bytes, int width, int height){
+        event.end();
+        if(event.shouldCommit())
+            commit(event, bytes, width, height, (long) width * height);
+    }
+
+    private static void commit(Encode event, long bytesOut, int width, int height, long pixels){
+        event.width = width;
+        event.height = height;
+        event.pixels = pixels;
+        event.bytesIn = 4 * pixels;
+        event.bytesOut = bytesOut;
+        event.commit();
+    }
+
+    private static void commit(Decode event, long bytesIn, int width, int height, long pixels){
+        event.width = width;
+        event.height = height;
+        event.pixels = pixels;
+        event.bytesIn = bytesIn;
+        event.bytesOut = 4 * pixels;
+        event.commit();
+    }
+}
\ No newline at end of file
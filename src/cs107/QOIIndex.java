@@ -0,0 +1,347 @@
+package cs107;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Seek index of a standard "Quite Ok Image" file, stored beside it in a sidecar file
+ * @apiNote While encoding, a checkpoint of the encoder state is recorded every interval pixels :
+ * index of the next chunk in the file, previous pixel, pending run and hash table.
+ * Decoding can start at any checkpoint, so some rows can be decoded without the previous ones
+ * and the segments between two checkpoints can be decoded in parallel.
+ * The "Quite Ok Image" file itself is unchanged. Layout of the sidecar :
+ * <pre>
+ * "qoix" | width (4) | height (4) | interval (4) | size of the QOI file (4) | checkpoints (4)
+ * for each checkpoint : offset (4) | previous (4) | run (1) | mask of the used slots (8) | used slots (4 each)
+ * </pre>
+ * @version 1.0
+ * @since 1.0
+ */
+public final class QOIIndex {
+
+    // Utility class
+    private QOIIndex(){}
+
+    /**
+     * Magic Number of an index file
+     */
+    public static final byte[] MAGIC = new byte[]{'q', 'o', 'i', 'x'};
+
+    /**
+     * Default number of pixels between two checkpoints
+     */
+    public static final int DEFAULT_INTERVAL = 1 << 16;
+
+    /**
+     * Size of the header of an index file
+     */
+    public static final int HEADER_SIZE = 4 + 4 + 4 + 4 + 4 + 4;
+
+    /**
+     * State of the encoder before encoding the pixel interval * i
+     * @param offset (int) - Index in the file of the next chunk
+     * @param previous (int) - ARGB previous pixel
+     * @param run (int) - Number of pixels of the pending run, all equal to previous
+     * @param hashTable (int[]) - The 64 last seen pixels
+     */
+    public record Checkpoint(int offset, int previous, int run, int[] hashTable){}
+
+    /**
+     * Seek index of a "Quite Ok Image" file
+     * @param width (int) - Width of the image
+     * @param height (int) - Height of the image
+     * @param interval (int) - Number of pixels between two checkpoints
+     * @param fileSize (int) - Size of the indexed file
+     * @param checkpoints (List) - Checkpoint of the pixels 0, interval, 2 * interval...
+     */
+    public record Index(int width, int height, int interval, int fileSize, List<Checkpoint> checkpoints){}
+
+    // ==================================================================================
+    // ================================= ENCODING METHODS ===============================
+    // ==================================================================================
+
+    /**
+     * Encode the given image rows and record a checkpoint every interval pixels
+     * @apiNote Writes the same chunks as QOIEncoder::encodeData(int[][], byte[], int)
+     * @param image (int[][]) - ARGB pixels of the image
+     * @param output (byte[]) - Array where to write the chunks
+     * @param position (int) - Index in output to start writing from
+     * @param interval (int) - Number of pixels between two checkpoints
+     * @param checkpoints (List) - Where to add the checkpoints, their offsets are indices in output
+     * @return (int) - Index in output right after the last written chunk
+     * @throws AssertionError if one of the arguments is null, the interval is not positive
+     * or the output is too small
+     */
+    public static int encodeData(int[][] image, byte[] output, int position, int interval, List<Checkpoint> checkpoints){
+        assert image != null : "Image is null";
+        assert output != null : "Output is null";
+        assert checkpoints != null : "Checkpoints is null";
+        assert interval > 0 : "Interval is invalid";
+
+        QOIEncoder.State state = new QOIEncoder.State();
+        long pixel = 0;
+        long nextCheckpoint = 0;
+        for(int[] row : image){
+            assert row != null : "One of the rows is null";
+            assert position + 5L * row.length <= output.length : "Output is too small";
+            int from = 0;
+            while(from < row.length){
+                if(pixel == nextCheckpoint){
+                    checkpoints.add(new Checkpoint(position, state.previous, state.run, state.hashTable.clone()));
+                    nextCheckpoint += interval;
+                }
+                int to = (int) Math.min(row.length, from + nextCheckpoint - pixel);
+                position = QOIEncoder.encodePixels(row, from, to, state, output, position);
+                pixel += to - from;
+                from = to;
+            }
+        }
+        return QOIEncoder.flush(state, output, position);
+    }
+
+    /**
+     * Creates the representation in memory of the "Quite Ok Image" file and its checkpoints
+     * @apiNote The file is byte-identical to QOIEncoder::qoiFile
+     * @param image (Helper.Image) - Image to encode
+     * @param interval (int) - Number of pixels between two checkpoints
+     * @param checkpoints (List) - Where to add the checkpoints, their offsets are indices in the file
+     * @return (byte[]) - Binary representation of the "Quite Ok File" of the image
+     * @throws AssertionError if the image or checkpoints is null or the interval is not positive
+     */
+    public static byte[] qoiFile(Helper.Image image, int interval, List<Checkpoint> checkpoints){
+        assert image != null : "Image is null";
+        byte[] header = QOIEncoder.qoiHeader(image);
+        int[][] data = image.data();
+        byte[] output = new byte[QOIEncoder.maxFileSize(data[0].length, data.length)];
+
+        System.arraycopy(header, 0, output, 0, header.length);
+        int position = encodeData(data, output, header.length, interval, checkpoints);
+        System.arraycopy(QOISpecification.QOI_EOF, 0, output, position, QOISpecification.QOI_EOF.length);
+        return Arrays.copyOf(output, position + QOISpecification.QOI_EOF.length);
+    }
+
+    // ==================================================================================
+    // =================================== INDEX FILE ===================================
+    // ==================================================================================
+
+    /**
+     * Creates the representation in memory of an index file
+     * @param index (Index) - The index
+     * @return (byte[]) - Content of the index file
+     * @throws AssertionError if the index is null
+     */
+    public static byte[] indexFile(Index index){
+        assert index != null : "Index is null";
+        int size = HEADER_SIZE;
+        for(Checkpoint checkpoint : index.checkpoints()){
+            size += 4 + 4 + 1 + 8 + 4 * usedSlots(checkpoint.hashTable());
+        }
+
+        ByteBuffer content = ByteBuffer.allocate(size);
+        content.put(MAGIC).putInt(index.width()).putInt(index.height()).putInt(index.interval())
+                .putInt(index.fileSize()).putInt(index.checkpoints().size());
+        for(Checkpoint checkpoint : index.checkpoints()){
+            content.putInt(checkpoint.offset()).putInt(checkpoint.previous()).put((byte) checkpoint.run());
+            long mask = 0;
+            for(int slot = 0; slot < 64; slot++){
+                if(checkpoint.hashTable()[slot] != 0)
+                    mask |= 1L << slot;
+            }
+            content.putLong(mask);
+            for(int pixel : checkpoint.hashTable()){
+                if(pixel != 0)
+                    content.putInt(pixel);
+            }
+        }
+        return content.array();
+    }
+
+    /**
+     * Read an index file
+     * @param content (byte[]) - Content of the index file
+     * @return (Index) - The index
+     * @throws AssertionError if the content is null or corrupted
+     */
+    public static Index decodeIndex(byte[] content){
+        assert content != null : "Content is null";
+        assert content.length >= HEADER_SIZE : "Header is truncated";
+        assert Arrays.equals(content, 0, MAGIC.length, MAGIC, 0, MAGIC.length) : "Magic number is invalid";
+
+        ByteBuffer buffer = ByteBuffer.wrap(content, MAGIC.length, content.length - MAGIC.length);
+        int width = buffer.getInt();
+        int height = buffer.getInt();
+        int interval = buffer.getInt();
+        int fileSize = buffer.getInt();
+        int count = buffer.getInt();
+        assert width > 0 && height > 0 && interval > 0 : "Dimensions are invalid";
+        assert count == (int) (((long) width * height + interval - 1) / interval) : "Number of checkpoints is invalid";
+
+        List<Checkpoint> checkpoints = new ArrayList<>(count);
+        for(int iCheckpoint = 0; iCheckpoint < count; iCheckpoint++){
+            assert buffer.remaining() >= 4 + 4 + 1 + 8 : "Index is truncated";
+            int offset = buffer.getInt();
+            int previous = buffer.getInt();
+            int run = buffer.get() & 0xFF;
+            long mask = buffer.getLong();
+            assert run < 62 && offset >= QOISpecification.HEADER_SIZE && offset < fileSize : "Checkpoint is corrupted";
+            assert buffer.remaining() >= 4 * Long.bitCount(mask) : "Index is truncated";
+            int[] hashTable = new int[64];
+            for(int slot = 0; slot < 64; slot++){
+                if((mask & (1L << slot)) != 0)
+                    hashTable[slot] = buffer.getInt();
+            }
+            checkpoints.add(new Checkpoint(offset, previous, run, hashTable));
+        }
+        assert !buffer.hasRemaining() : "Data after the last checkpoint";
+        return new Index(width, height, interval, fileSize, checkpoints);
+    }
+
+    // ==================================================================================
+    // ================================= DECODING METHODS ===============================
+    // ==================================================================================
+
+    /**
+     * Decode some rows of an image, starting from the last checkpoint before the first row
+     * @param content (byte[]) - Content of the "Quite Ok Image" file
+     * @param index (Index) - Index of the file
+     * @param firstRow (int) - First row to decode
+     * @param rowCount (int) - Number of rows to decode
+     * @return (int[][]) - ARGB pixels of the rows
+     * @throws AssertionError if the content or index is null, the rows are not in the image
+     * or the file does not match the index
+     */
+    public static int[][] decodeRows(byte[] content, Index index, int firstRow, int rowCount){
+        checkFile(content, index);
+        assert firstRow >= 0 && rowCount >= 0 && (long) firstRow + rowCount <= index.height() : "Rows are invalid";
+
+        int width = index.width();
+        long first = (long) firstRow * width;
+        int iCheckpoint = (int) (first / index.interval());
+        QOIDecoder.State state = start(index.checkpoints().get(iCheckpoint));
+        int end = content.length - QOISpecification.QOI_EOF.length;
+        // The pending run of the checkpoint and the pixels before the first row are decoded then dropped
+        long skip = index.checkpoints().get(iCheckpoint).run() + first - (long) iCheckpoint * index.interval();
+        int[] scratch = new int[width];
+        while(skip > 0){
+            int decoded = QOIDecoder.decodePixels(content, end, state, scratch, 0, (int) Math.min(width, skip));
+            assert decoded > 0 : "Data is too short";
+            skip -= decoded;
+        }
+
+        int[][] rows = new int[rowCount][];
+        for(int iRow = 0; iRow < rowCount; iRow++){
+            rows[iRow] = new int[width];
+            int decoded = QOIDecoder.decodePixels(content, end, state, rows[iRow], 0, width);
+            assert decoded == width : "Data is too short";
+        }
+        return rows;
+    }
+
+    /**
+     * Decode a whole image, in parallel on the common ForkJoinPool
+     * @param content (byte[]) - Content of the "Quite Ok Image" file
+     * @param index (Index) - Index of the file
+     * @return (Helper.Image) - The decoded image, same as QOIDecoder::decodeQoiFile
+     * @throws AssertionError if the content or index is null or the file does not match the index
+     */
+    public static Helper.Image decode(byte[] content, Index index){
+        return decode(content, index, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Decode a whole image, one segment between two checkpoints per task of the given pool
+     * @param content (byte[]) - Content of the "Quite Ok Image" file
+     * @param index (Index) - Index of the file
+     * @param pool (ForkJoinPool) - Pool decoding the segments
+     * @return (Helper.Image) - The decoded image, same as QOIDecoder::decodeQoiFile
+     * @throws AssertionError if the content or index is null or the file does not match the index
+     */
+    public static Helper.Image decode(byte[] content, Index index, ForkJoinPool pool){
+        int[] header = checkFile(content, index);
+        long pixels = (long) index.width() * index.height();
+        int end = content.length - QOISpecification.QOI_EOF.length;
+        List<Checkpoint> checkpoints = index.checkpoints();
+
+        int[][] data = new int[index.height()][index.width()];
+        pool.submit(() -> IntStream.range(0, checkpoints.size()).parallel().forEach(iCheckpoint -> {
+            Checkpoint checkpoint = checkpoints.get(iCheckpoint);
+            QOIDecoder.State state = start(checkpoint);
+            int skipped = QOIDecoder.decodePixels(content, end, state, new int[checkpoint.run()], 0, checkpoint.run());
+            assert skipped == checkpoint.run() : "Data is too short";
+
+            long first = (long) iCheckpoint * index.interval();
+            QOIDecoder.decodeRange(content, end, state, data, first, Math.min(pixels, first + index.interval()) - first);
+            if(iCheckpoint + 1 < checkpoints.size()){
+                Checkpoint next = checkpoints.get(iCheckpoint + 1);
+                assert state.previous == next.previous() : "Checkpoint is corrupted";
+            } else {
+                assert state.idx == end && state.run == 0 : "Data after the last pixel";
+            }
+        })).join();
+
+        return Helper.generateImage(data, (byte) header[2], (byte) header[3]);
+    }
+
+    /**
+     * Encode a "PNG" file to "QOI" and write its index beside it.
+     * The outputs are written to the folder "res/"
+     * @param args (String[]) - input.png output.qoi output.qoix [interval]
+     */
+    public static void main(String[] args){
+        if(args.length != 3 && args.length != 4){
+            System.out.println("Usage : QOIIndex <input.png> <output.qoi> <output.qoix> [interval]");
+            return;
+        }
+        var image = Helper.readImage(args[0]);
+        int interval = args.length == 4 ? Integer.parseInt(args[3]) : DEFAULT_INTERVAL;
+        var checkpoints = new ArrayList<Checkpoint>();
+        byte[] file = qoiFile(image, interval, checkpoints);
+        var index = new Index(image.data()[0].length, image.data().length, interval, file.length, checkpoints);
+        Helper.write(args[1], file);
+        Helper.write(args[2], indexFile(index));
+    }
+
+    // ==================================================================================
+
+    private static int usedSlots(int[] hashTable){
+        int used = 0;
+        for(int pixel : hashTable){
+            if(pixel != 0)
+                used++;
+        }
+        return used;
+    }
+
+    /**
+     * Decoder state resuming the decoding at a checkpoint.
+     * The pending run of the checkpoint is the first pixels of the next chunk
+     */
+    private static QOIDecoder.State start(Checkpoint checkpoint){
+        QOIDecoder.State state = new QOIDecoder.State();
+        state.previous = checkpoint.previous();
+        state.idx = checkpoint.offset();
+        System.arraycopy(checkpoint.hashTable(), 0, state.hashTable, 0, 64);
+        return state;
+    }
+
+    /**
+     * Check that the file is the one described by the index
+     * @return (int[]) - Header of the file (See QOIDecoder::decodeHeader)
+     */
+    private static int[] checkFile(byte[] content, Index index){
+        assert content != null : "Content is null";
+        assert index != null : "Index is null";
+        assert content.length == index.fileSize() : "The index does not describe this file";
+        int[] header = QOIDecoder.decodeHeader(ArrayUtils.extract(content, 0, QOISpecification.HEADER_SIZE));
+        assert header[0] == index.width() && header[1] == index.height() : "The index does not describe this file";
+        int eofStart = content.length - QOISpecification.QOI_EOF.length;
+        assert Arrays.equals(content, eofStart, content.length, QOISpecification.QOI_EOF, 0, QOISpecification.QOI_EOF.length)
+                : "La signature de fin de fichier est corrompue";
+        return header;
+    }
+
+}
\ No newline at end of file
@@ -0,0 +1,368 @@
+package cs107;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Disassembler of "Quite Ok Image" files, in the spirit of Hexdump
+ * @apiNote The file is read through a fixed size buffer and the output is built in one reusable
+ * StringBuilder, written to the output every few kilobytes, so files of any size can be inspected.
+ * Each chunk is printed with its bytes, its opcode, its decoded differences or run length,
+ * the position of its first pixel and the pixel it produces. Every row is summarised by the number
+ * of bytes of the chunks starting in it, and the whole file by the histogram of the opcodes,
+ * the rate of hits of the hash table and its longest runs
+ * @version 1.0
+ * @since 1.0
+ */
+public final class QOIInspector {
+
+    /**
+     * Default size of the input buffer
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Number of longest runs in the summary
+     */
+    public static final int LONGEST_RUNS = 5;
+
+    // Same order as QOIMetrics.KINDS
+    private static final String[] NAMES = {"QOI_OP_RGB", "QOI_OP_RGBA", "QOI_OP_INDEX", "QOI_OP_DIFF", "QOI_OP_LUMA", "QOI_OP_RUN"};
+    private static final int RGB = 0, RGBA = 1, INDEX = 2, DIFF = 3, LUMA = 4, RUN = 5;
+
+    // Size of the text kept in the StringBuilder before it is written to the output
+    private static final int FLUSH_SIZE = 1 << 13;
+    private static final String SEPARATOR = "==========================================================================================";
+    private static final String NEWLINE = System.lineSeparator();
+
+    private final ReadableByteChannel input;
+    private final Appendable output;
+    private final boolean chunks;
+    private final byte[] buffer;
+    private final ByteBuffer wrapper;
+    private final StringBuilder line = new StringBuilder(FLUSH_SIZE + 256);
+    private int idx = 0;
+    private int limit = 0;
+    private long address = 0;
+    private boolean finished = false;
+
+    private int width;
+    private int height;
+    private long position = 0;
+    private int previous = QOISpecification.START_PIXEL_ARGB;
+    private final int[] hashTable = new int[64];
+
+    private final long[] counts = new long[NAMES.length];
+    private final long[] bytes = new long[NAMES.length];
+    private final long[] pixels = new long[NAMES.length];
+    private long row = 0;
+    private long rowBytes = 0;
+    private long runStart = 0;
+    private long runLength = 0;
+    private final long[] longestRuns = new long[LONGEST_RUNS];
+    private final long[] longestStarts = new long[LONGEST_RUNS];
+
+    private QOIInspector(ReadableByteChannel input, Appendable output, boolean chunks, int bufferSize){
+        this.input = input;
+        this.output = output;
+        this.chunks = chunks;
+        this.buffer = new byte[bufferSize];
+        this.wrapper = ByteBuffer.wrap(buffer);
+    }
+
+    // ==================================================================================
+    // ================================== INSPECTOR API =================================
+    // ==================================================================================
+
+    /**
+     * Print the chunks of a file, or only its summary, in the Terminal
+     * @param path (String) - Relative or Absolute path to the file
+     * @param chunks (boolean) - Print every chunk, not only the rows and the summary
+     * @throws AssertionError if the path is null or the file is corrupted
+     */
+    public static void inspect(String path, boolean chunks){
+        assert path != null : "Path is null";
+        try(var channel = FileChannel.open(Path.of(path), StandardOpenOption.READ)){
+            inspect(channel, System.out, chunks, DEFAULT_BUFFER_SIZE);
+        } catch (IOException e){
+            Helper.fail("An error occurred while trying to read from : \"%s\"%n", path);
+        }
+    }
+
+    /**
+     * Print the chunks of an encoded image, or only its summary
+     * @param input (ReadableByteChannel) - Where to read the file from, not closed at the end
+     * @param output (Appendable) - Where to print, flushed at the end if it is Flushable
+     * @param chunks (boolean) - Print every chunk, not only the rows and the summary
+     * @param bufferSize (int) - Size of the buffer used to read the file
+     * @throws AssertionError if the input or the output is null, the buffer is too small
+     * or the file is corrupted
+     */
+    public static void inspect(ReadableByteChannel input, Appendable output, boolean chunks, int bufferSize){
+        assert input != null : "Input is null";
+        assert output != null : "Output is null";
+        assert bufferSize >= QOISpecification.HEADER_SIZE + QOISpecification.QOI_EOF.length : "Buffer is too small";
+        var inspector = new QOIInspector(input, output, chunks, bufferSize);
+        try {
+            try {
+                inspector.inspect();
+            } finally {
+                // The chunks read before a corrupted one are printed anyway
+                inspector.flush(0);
+                if(output instanceof Flushable flushable)
+                    flushable.flush();
+            }
+        } catch (IOException e){
+            Helper.fail("An error occurred while inspecting the encoded image : %s%n", e.getMessage());
+        }
+    }
+
+    // ==================================================================================
+    // ================================= CHUNK METHODS ==================================
+    // ==================================================================================
+
+    private void inspect() throws IOException {
+        boolean available = ensure(QOISpecification.HEADER_SIZE);
+        assert available : "Header is truncated";
+        int[] header = QOIDecoder.decodeHeader(ArrayUtils.extract(buffer, 0, QOISpecification.HEADER_SIZE));
+        width = header[0];
+        height = header[1];
+        line.append(SEPARATOR).append(NEWLINE);
+        line.append("== Header : ").append(width).append(" x ").append(height).append(" pixels, ")
+                .append(header[2]).append(" channels, color space ").append(header[3]).append(NEWLINE);
+        if(chunks){
+            Hexdump.appendLine(line, 0, buffer, 0, 10);
+            Hexdump.appendLine(line, 10, buffer, 10, QOISpecification.HEADER_SIZE - 10);
+        }
+        line.append(SEPARATOR).append(NEWLINE);
+        idx = QOISpecification.HEADER_SIZE;
+
+        long total = (long) width * height;
+        while(position < total){
+            available = ensure(1);
+            assert available : "Data is too short";
+            chunk(total);
+            flush(FLUSH_SIZE);
+        }
+        endRun();
+
+        available = ensure(QOISpecification.QOI_EOF.length);
+        assert available && Arrays.equals(buffer, idx, idx + QOISpecification.QOI_EOF.length,
+                QOISpecification.QOI_EOF, 0, QOISpecification.QOI_EOF.length) : "La signature de fin de fichier est corrompue";
+        if(chunks){
+            Hexdump.appendHex(line, address + idx, 6).append(" : ");
+            Hexdump.appendBytes(line, buffer, idx, QOISpecification.QOI_EOF.length).append(" | QOI_EOF").append(NEWLINE);
+        }
+        summary(total);
+    }
+
+    /**
+     * Read the chunk starting at idx, print it and count it
+     */
+    private void chunk(long total){
+        byte tag = buffer[idx];
+        int length = QOIDecoder.chunkLength(tag);
+        boolean available = ensure(length);
+        assert available : "Data is too short";
+        long first = position;
+        int kind;
+        int count = 1;
+        int pixel;
+        if(tag == QOISpecification.QOI_OP_RGB_TAG){
+            kind = RGB;
+            pixel = (previous & 0xFF_00_00_00) | (buffer[idx + 1] & 0xFF) << 16 | (buffer[idx + 2] & 0xFF) << 8 | (buffer[idx + 3] & 0xFF);
+        } else if(tag == QOISpecification.QOI_OP_RGBA_TAG){
+            kind = RGBA;
+            pixel = (buffer[idx + 4] & 0xFF) << 24 | (buffer[idx + 1] & 0xFF) << 16 | (buffer[idx + 2] & 0xFF) << 8 | (buffer[idx + 3] & 0xFF);
+        } else {
+            kind = switch((byte) (tag & 0b11_00_00_00)){
+                case QOISpecification.QOI_OP_INDEX_TAG -> INDEX;
+                case QOISpecification.QOI_OP_DIFF_TAG -> DIFF;
+                case QOISpecification.QOI_OP_LUMA_TAG -> LUMA;
+                default -> RUN;
+            };
+            pixel = switch(kind){
+                case INDEX -> hashTable[tag & 0b00_11_11_11];
+                case DIFF -> QOIDecoder.addToChannels(previous, (tag >> 4 & 0b11) - 2, (tag >> 2 & 0b11) - 2, (tag & 0b11) - 2);
+                case LUMA -> {
+                    int dg = (tag & 0b00_11_11_11) - 32;
+                    yield QOIDecoder.addToChannels(previous, dg + (buffer[idx + 1] >> 4 & 0xF) - 8, dg, dg + (buffer[idx + 1] & 0xF) - 8);
+                }
+                default -> previous;
+            };
+            if(kind == RUN){
+                count = (tag & 0b00_11_11_11) + 1;
+                assert position + count <= total : "Run exceeds the image";
+            }
+        }
+
+        if(chunks)
+            print(tag, kind, length, pixel);
+        if(kind == RUN){
+            if(runLength == 0)
+                runStart = first;
+            runLength += count;
+        } else {
+            endRun();
+        }
+        counts[kind]++;
+        bytes[kind] += length;
+        pixels[kind] += count;
+        rowBytes += length;
+        hashTable[QOISpecification.hash(pixel)] = pixel;
+        previous = pixel;
+        position += count;
+        idx += length;
+        while(row < height && position >= (row + 1) * width)
+            endRow();
+    }
+
+    /**
+     * Print the chunk starting at idx
+     */
+    private void print(byte tag, int kind, int length, int pixel){
+        Hexdump.appendHex(line, address + idx, 6).append(" : ");
+        Hexdump.appendBytes(line, buffer, idx, length);
+        for(int pad = length; pad < 5; pad++)
+            line.append("   ");
+        line.append(" | ").append(NAMES[kind]);
+        for(int pad = NAMES[kind].length(); pad < 12; pad++)
+            line.append(' ');
+        line.append(" | (").append(position % width).append(", ").append(position / width).append(") | ");
+        switch(kind){
+            case RGB -> line.append("r=").append(pixel >> 16 & 0xFF).append(" g=").append(pixel >> 8 & 0xFF).append(" b=").append(pixel & 0xFF);
+            case RGBA -> line.append("r=").append(pixel >> 16 & 0xFF).append(" g=").append(pixel >> 8 & 0xFF).append(" b=").append(pixel & 0xFF)
+                    .append(" a=").append(pixel >>> 24);
+            case INDEX -> line.append("index=").append(tag & 0b00_11_11_11);
+            case DIFF -> line.append("dr=").append((tag >> 4 & 0b11) - 2).append(" dg=").append((tag >> 2 & 0b11) - 2).append(" db=").append((tag & 0b11) - 2);
+            case LUMA -> line.append("dg=").append((tag & 0b00_11_11_11) - 32).append(" dr-dg=").append((buffer[idx + 1] >> 4 & 0xF) - 8)
+                    .append(" db-dg=").append((buffer[idx + 1] & 0xF) - 8);
+            default -> line.append("run=").append((tag & 0b00_11_11_11) + 1);
+        }
+        Hexdump.appendHex(line.append(" -> #"), pixel & 0xFFFFFFFFL, 8).append(NEWLINE);
+    }
+
+    // ==================================================================================
+    // =============================== STATISTICS METHODS ===============================
+    // ==================================================================================
+
+    /**
+     * Print the number of bytes of the chunks starting in the current row
+     */
+    private void endRow(){
+        long thousandths = (rowBytes * 1000 + width / 2) / width;
+        line.append("== Row ").append(row).append(" : ").append(rowBytes).append(" bytes, ")
+                .append(thousandths / 1000).append('.');
+        appendThousandths(thousandths % 1000).append(" bytes per pixel").append(NEWLINE);
+        row++;
+        rowBytes = 0;
+    }
+
+    /**
+     * Keep the current run if it is one of the longest
+     */
+    private void endRun(){
+        if(runLength == 0)
+            return;
+        for(int i = 0; i < LONGEST_RUNS; i++){
+            if(runLength > longestRuns[i]){
+                System.arraycopy(longestRuns, i, longestRuns, i + 1, LONGEST_RUNS - i - 1);
+                System.arraycopy(longestStarts, i, longestStarts, i + 1, LONGEST_RUNS - i - 1);
+                longestRuns[i] = runLength;
+                longestStarts[i] = runStart;
+                break;
+            }
+        }
+        runLength = 0;
+    }
+
+    private void summary(long total){
+        long chunkCount = 0;
+        long byteCount = 0;
+        for(int kind = 0; kind < NAMES.length; kind++){
+            chunkCount += counts[kind];
+            byteCount += bytes[kind];
+        }
+        line.append(SEPARATOR).append(NEWLINE);
+        for(int kind = 0; kind < NAMES.length; kind++){
+            line.append(String.format("== %-12s : %10d chunks (%5.1f %%), %10d bytes, %10d pixels%n",
+                    NAMES[kind], counts[kind], percent(counts[kind], chunkCount), bytes[kind], pixels[kind]));
+        }
+        line.append(String.format("== Total        : %10d chunks, %d bytes, %.3f bytes per pixel%n",
+                chunkCount, byteCount, total == 0 ? 0.0 : (double) byteCount / total));
+        long misses = chunkCount - counts[RUN] - counts[INDEX];
+        line.append(String.format("== Index hits   : %d of %d pixels out of runs (%.1f %%)%n",
+                counts[INDEX], counts[INDEX] + misses, percent(counts[INDEX], counts[INDEX] + misses)));
+        line.append("== Longest runs :");
+        for(int i = 0; i < LONGEST_RUNS && longestRuns[i] > 0; i++){
+            line.append(i == 0 ? " " : ", ").append(longestRuns[i]).append(" pixels at (")
+                    .append(longestStarts[i] % width).append(", ").append(longestStarts[i] / width).append(')');
+        }
+        line.append(NEWLINE).append(SEPARATOR).append(NEWLINE);
+    }
+
+    private static double percent(long part, long whole){
+        return whole == 0 ? 0.0 : 100.0 * part / whole;
+    }
+
+    private StringBuilder appendThousandths(long thousandths){
+        if(thousandths < 100)
+            line.append('0');
+        if(thousandths < 10)
+            line.append('0');
+        return line.append(thousandths);
+    }
+
+    // ==================================================================================
+    // ================================= BUFFER METHODS =================================
+    // ==================================================================================
+
+    /**
+     * Write the text built so far to the output once it is longer than the given size
+     */
+    private void flush(int size) throws IOException {
+        if(line.length() >= size){
+            output.append(line);
+            line.setLength(0);
+        }
+    }
+
+    /**
+     * Read the input until the given number of bytes is available from idx
+     * @return (boolean) - false if the end of the input is reached before
+     */
+    private boolean ensure(int count){
+        while(limit - idx < count && !finished)
+            refill();
+        return limit - idx >= count;
+    }
+
+    /**
+     * Move the unread bytes to the beginning of the buffer and read at least one more byte,
+     * unless the end of the input is reached
+     */
+    private void refill(){
+        int remaining = limit - idx;
+        System.arraycopy(buffer, idx, buffer, 0, remaining);
+        address += idx;
+        idx = 0;
+        wrapper.clear().position(remaining);
+        try {
+            int read = 0;
+            while(read == 0 && wrapper.hasRemaining()){
+                read = input.read(wrapper);
+            }
+            if(read < 0)
+                finished = true;
+        } catch (IOException e){
+            Helper.fail("An error occurred while reading the encoded image : %s%n", e.getMessage());
+        }
+        limit = wrapper.position();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,338 @@
+package cs107;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Opt-in statistics of the "Quite Ok Image" Encoder and Decoder
+ * @apiNote For every encoded or decoded image, the chunks are counted by kind, with their size
+ * and the number of pixels of the runs, and the latency of the call is recorded in a histogram.
+ * The counters are LongAdder, so the threads encoding and decoding in parallel do not contend on them.
+ * The statistics are disabled by default, they are enabled by QOIMetrics::enable or with the system
+ * property "qoi.metrics=true". The chunks are counted by reading them again once the call is timed,
+ * so the encoding and decoding loops are the same whether the statistics are enabled or not :
+ * when disabled, a call only tests one flag. The counted methods are the QOIEncoder::encodeData
+ * and QOIDecoder::decodeData methods and the QOIDecoder::decodeQoiFile method reading a ByteBuffer
+ * @version 1.0
+ * @since 1.0
+ */
+public final class QOIMetrics {
+
+    // Utility class
+    private QOIMetrics(){}
+
+    /**
+     * Names of the kinds of chunk, in the order of the counters
+     */
+    public static final String[] KINDS = {"rgb", "rgba", "index", "diff", "luma", "run"};
+
+    /**
+     * Number of buckets of the latency histograms, the bucket i counts the calls
+     * shorter than 2^i microseconds, the last one all the others
+     */
+    public static final int LATENCY_BUCKETS = 26;
+
+    private static final int RGB = 0;
+    private static final int RGBA = 1;
+    private static final int INDEX = 2;
+    private static final int DIFF = 3;
+    private static final int LUMA = 4;
+    private static final int RUN = 5;
+
+    private static volatile boolean enabled = Boolean.getBoolean("qoi.metrics");
+
+    private static final Counters ENCODE = new Counters("encode");
+    private static final Counters DECODE = new Counters("decode");
+
+    /**
+     * Statistics of one operation
+     */
+    private static final class Counters {
+        final String operation;
+        final LongAdder images = new LongAdder();
+        final LongAdder pixels = new LongAdder();
+        final LongAdder nanos = new LongAdder();
+        final LongAdder runPixels = new LongAdder();
+        final LongAdder[] chunks = adders(KINDS.length);
+        final LongAdder[] bytes = adders(KINDS.length);
+        final LongAdder[] latency = adders(LATENCY_BUCKETS);
+
+        Counters(String operation){
+            this.operation = operation;
+        }
+
+        void add(long[] tally, long pixels, long elapsed){
+            for(int kind = 0; kind < KINDS.length; kind++){
+                chunks[kind].add(tally[kind]);
+                bytes[kind].add(tally[KINDS.length + kind]);
+            }
+            runPixels.add(tally[2 * KINDS.length]);
+            images.increment();
+            this.pixels.add(pixels);
+            nanos.add(elapsed);
+            int bucket = 64 - Long.numberOfLeadingZeros(elapsed / 1000);
+            latency[Math.min(bucket, LATENCY_BUCKETS - 1)].increment();
+        }
+
+        void reset(){
+            for(LongAdder adder : new LongAdder[]{images, pixels, nanos, runPixels})
+                adder.reset();
+            for(LongAdder[] adders : new LongAdder[][]{chunks, bytes, latency})
+                for(LongAdder adder : adders)
+                    adder.reset();
+        }
+    }
+
+    private static LongAdder[] adders(int count){
+        LongAdder[] adders = new LongAdder[count];
+        for(int i = 0; i < count; i++)
+            adders[i] = new LongAdder();
+        return adders;
+    }
+
+    /**
+     * Count the chunks of an encoded image
+     * @param data (byte[]) - Array containing the chunks
+     * @param from (int) - Index of the first chunk
+     * @param to (int) - Index after the last chunk
+     * @return (long[]) - Number of chunks of each kind (in the order of KINDS), then number of bytes
+     * of each kind, then number of pixels of the runs
+     */
+    static long[] tally(byte[] data, int from, int to){
+        long[] tally = new long[2 * KINDS.length + 1];
+        for(int idx = from; idx < to; )
+            idx += count(tally, data[idx]);
+        return tally;
+    }
+
+    /**
+     * Count the chunks of an encoded image read from a ByteBuffer
+     * @see QOIMetrics#tally(byte[], int, int)
+     */
+    static long[] tally(ByteBuffer data, int from, int to){
+        long[] tally = new long[2 * KINDS.length + 1];
+        for(int idx = from; idx < to; )
+            idx += count(tally, data.get(idx));
+        return tally;
+    }
+
+    /**
+     * Count a chunk in a tally (See QOIMetrics::tally)
+     * @param tally (long[]) - Tally of 2 * KINDS.length + 1 counters
+     * @param tag (byte) - First byte of the chunk
+     * @return (int) - Length of the chunk
+     */
+    private static int count(long[] tally, byte tag){
+        int kind;
+        if(tag == QOISpecification.QOI_OP_RGB_TAG)
+            kind = RGB;
+        else if(tag == QOISpecification.QOI_OP_RGBA_TAG)
+            kind = RGBA;
+        else
+            kind = switch(tag & 0b11_00_00_00){
+                case QOISpecification.QOI_OP_INDEX_TAG -> INDEX;
+                case QOISpecification.QOI_OP_DIFF_TAG -> DIFF;
+                case QOISpecification.QOI_OP_LUMA_TAG & 0xFF -> LUMA;
+                default -> RUN;
+            };
+        int length = QOIDecoder.chunkLength(tag);
+        tally[kind]++;
+        tally[KINDS.length + kind] += length;
+        if(kind == RUN)
+            tally[2 * KINDS.length] += (tag & 0b00_11_11_11) + 1;
+        return length;
+    }
+
+    // ==================================================================================
+    // ================================== SWITCHES ======================================
+    // ==================================================================================
+
+    /**
+     * Start counting the chunks and timing the calls
+     */
+    public static void enable(){
+        enabled = true;
+    }
+
+    /**
+     * Stop counting, the statistics already recorded are kept
+     */
+    public static void disable(){
+        enabled = false;
+    }
+
+    /**
+     * @return (boolean) - true if the statistics are recorded
+     */
+    public static boolean isEnabled(){
+        return enabled;
+    }
+
+    /**
+     * Forget all the recorded statistics
+     */
+    public static void reset(){
+        ENCODE.reset();
+        DECODE.reset();
+    }
+
+    // ==================================================================================
+    // ================================== RECORDING =====================================
+    // ==================================================================================
+
+    /**
+     * Beginning of a counted call
+     * @return (long) - Time to give to QOIMetrics::encoded or QOIMetrics::decoded, 0 if disabled
+     */
+    static long start(){
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Record an encoded image
+     * @param output (byte[]) - Array containing the written chunks
+     * @param from (int) - Index of the first chunk
+     * @param to (int) - Index after the last chunk
+     * @param pixels (long) - Number of encoded pixels
+     * @param start (long) - Value returned by QOIMetrics::start at the beginning of the call
+     */
+    static void encoded(byte[] output, int from, int to, long pixels, long start){
+        if(enabled && start != 0){
+            long elapsed = System.nanoTime() - start;
+            ENCODE.add(tally(output, from, to), pixels, elapsed);
+        }
+    }
+
+    /**
+     * Record a decoded image
+     * @param data (byte[]) - Array containing the read chunks
+     * @param from (int) - Index of the first chunk
+     * @param to (int) - Index after the last chunk
+     * @param pixels (long) - Number of decoded pixels
+     * @param start (long) - Value returned by QOIMetrics::start at the beginning of the call
+     */
+    static void decoded(byte[] data, int from, int to, long pixels, long start){
+        if(enabled && start != 0){
+            long elapsed = System.nanoTime() - start;
+            DECODE.add(tally(data, from, to), pixels, elapsed);
+        }
+    }
+
+    /**
+     * Record a decoded image read from a ByteBuffer
+     * @see QOIMetrics#decoded(byte[], int, int, long, long)
+     */
+    static void decoded(ByteBuffer data, int from, int to, long pixels, long start){
+        if(enabled && start != 0){
+            long elapsed = System.nanoTime() - start;
+            DECODE.add(tally(data, from, to), pixels, elapsed);
+        }
+    }
+
+    // ==================================================================================
+    // =================================== EXPORT =======================================
+    // ==================================================================================
+
+    /**
+     * Snapshot of the statistics in the text format of Prometheus
+     * @return (String) - Counters qoi_images_total, qoi_pixels_total, qoi_seconds_total, qoi_chunks_total,
+     * qoi_chunk_bytes_total, qoi_run_pixels_total and histogram qoi_latency_seconds, labelled by operation
+     */
+    public static String prometheus(){
+        StringBuilder text = new StringBuilder();
+        header(text, "qoi_images_total", "counter", "Number of encoded or decoded images");
+        for(Counters counters : new Counters[]{ENCODE, DECODE})
+            sample(text, "qoi_images_total", counters, "", counters.images.sum());
+        header(text, "qoi_pixels_total", "counter", "Number of encoded or decoded pixels");
+        for(Counters counters : new Counters[]{ENCODE, DECODE})
+            sample(text, "qoi_pixels_total", counters, "", counters.pixels.sum());
+        header(text, "qoi_seconds_total", "counter", "Time spent encoding or decoding");
+        for(Counters counters : new Counters[]{ENCODE, DECODE})
+            sample(text, "qoi_seconds_total", counters, "", counters.nanos.sum() / 1e9);
+        header(text, "qoi_chunks_total", "counter", "Number of chunks written or read, by kind");
+        for(Counters counters : new Counters[]{ENCODE, DECODE})
+            for(int kind = 0; kind < KINDS.length; kind++)
+                sample(text, "qoi_chunks_total", counters, ",kind=\"" + KINDS[kind] + "\"", counters.chunks[kind].sum());
+        header(text, "qoi_chunk_bytes_total", "counter", "Number of bytes of the chunks written or read, by kind");
+        for(Counters counters : new Counters[]{ENCODE, DECODE})
+            for(int kind = 0; kind < KINDS.length; kind++)
+                sample(text, "qoi_chunk_bytes_total", counters, ",kind=\"" + KINDS[kind] + "\"", counters.bytes[kind].sum());
+        header(text, "qoi_run_pixels_total", "counter", "Number of pixels encoded or decoded by QOI_OP_RUN chunks");
+        for(Counters counters : new Counters[]{ENCODE, DECODE})
+            sample(text, "qoi_run_pixels_total", counters, "", counters.runPixels.sum());
+        header(text, "qoi_latency_seconds", "histogram", "Duration of the calls");
+        for(Counters counters : new Counters[]{ENCODE, DECODE}){
+            long cumulated = 0;
+            for(int bucket = 0; bucket < LATENCY_BUCKETS; bucket++){
+                cumulated += counters.latency[bucket].sum();
+                String bound = bucket == LATENCY_BUCKETS - 1 ? "+Inf" : Double.toString((1L << bucket) / 1e6);
+                sample(text, "qoi_latency_seconds_bucket", counters, ",le=\"" + bound + "\"", cumulated);
+            }
+            sample(text, "qoi_latency_seconds_sum", counters, "", counters.nanos.sum() / 1e9);
+            sample(text, "qoi_latency_seconds_count", counters, "", cumulated);
+        }
+        return text.toString();
+    }
+
+    /**
+     * Snapshot of the statistics in JSON
+     * @return (String) - One object per operation ("encode" and "decode") with the number of images,
+     * pixels, seconds, pixels per second, run pixels, the chunks and bytes by kind and the latency histogram
+     */
+    public static String json(){
+        StringBuilder text = new StringBuilder("{");
+        for(Counters counters : new Counters[]{ENCODE, DECODE}){
+            long nanos = counters.nanos.sum();
+            long pixels = counters.pixels.sum();
+            if(counters == DECODE)
+                text.append(',');
+            text.append('"').append(counters.operation).append("\":{")
+                    .append("\"images\":").append(counters.images.sum())
+                    .append(",\"pixels\":").append(pixels)
+                    .append(",\"seconds\":").append(nanos / 1e9)
+                    .append(",\"pixelsPerSecond\":").append(nanos == 0 ? 0 : pixels * 1e9 / nanos)
+                    .append(",\"runPixels\":").append(counters.runPixels.sum());
+            for(String name : new String[]{"chunks", "bytes"}){
+                LongAdder[] adders = name.equals("chunks") ? counters.chunks : counters.bytes;
+                text.append(",\"").append(name).append("\":{");
+                for(int kind = 0; kind < KINDS.length; kind++)
+                    text.append(kind == 0 ? "" : ",").append('"').append(KINDS[kind]).append("\":").append(adders[kind].sum());
+                text.append('}');
+            }
+            text.append(",\"latencyMicros\":[");
+            for(int bucket = 0; bucket < LATENCY_BUCKETS; bucket++)
+                text.append(bucket == 0 ? "" : ",").append(counters.latency[bucket].sum());
+            text.append("]}");
+        }
+        return text.append('}').toString();
+    }
+
+    /**
+     * Write a snapshot of the statistics to the disk. This function writes to the folder called "res/"
+     * @param path (String) - Relative or Absolute path to the file, in JSON if it ends with ".json",
+     * in the text format of Prometheus otherwise
+     * @throws AssertionError if the path is null
+     */
+    public static void export(String path){
+        assert path != null : "Path is null";
+        String snapshot = path.endsWith(".json") ? json() : prometheus();
+        Helper.write(path, snapshot.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void header(StringBuilder text, String name, String type, String help){
+        text.append("# HELP ").append(name).append(' ').append(help).append('\n')
+                .append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder text, String name, Counters counters, String labels, long value){
+        text.append(name).append("{operation=\"").append(counters.operation).append('"').append(labels).append("} ")
+                .append(value).append('\n');
+    }
+
+    private static void sample(StringBuilder text, String name, Counters counters, String labels, double value){
+        text.append(name).append("{operation=\"").append(counters.operation).append('"').append(labels).append("} ")
+                .append(String.format(Locale.ROOT, "%.9f", value)).append('\n');
+    }
+}
\ No newline at end of file
@@ -0,0 +1,384 @@
+package cs107;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import static cs107.Helper.Image;
+
+/**
+ * "Quite Ok Image" Decoder splitting a standard file in segments decoded in parallel
+ * @apiNote The decoding is done in three passes :
+ * <ol>
+ * <li>the chunks are scanned, reading their tag only, to find the first pixel of every segment</li>
+ * <li>every segment is decoded in parallel without knowing the previous pixel and the hash table
+ * it starts with. The pixels that do not depend on them are tracked : a QOI_OP_RGB or QOI_OP_RGBA
+ * chunk gives a known pixel, and so does a QOI_OP_INDEX chunk reading a slot written by a known
+ * pixel. The synchronisation point of the segment is the pixel after the last unknown one</li>
+ * <li>the states at the beginning of the segments are chained one after the other, and the pixels
+ * of every segment before its synchronisation point are decoded again with the right state.
+ * This is done in order only for the segments whose final hash table still has unknown slots,
+ * in parallel otherwise</li>
+ * </ol>
+ * The speculation assumes the alpha of the previous pixel is 255 when a segment starts.
+ * A segment whose assumption is wrong is decoded again entirely. Images made of few colours, read
+ * back from the hash table, rarely synchronise and are mostly decoded in order by the fix-up.
+ * With a pool of one thread, or less than two segments of pixels, the file is simply decoded in order.
+ * The pixels are always the same as the ones of QOIDecoder::decodeData
+ * @version 1.0
+ * @since 1.0
+ */
+public final class QOIParallelDecoder {
+
+    // Utility class
+    private QOIParallelDecoder(){}
+
+    /**
+     * Minimum number of pixels of a segment, below that the synchronisation costs more than it saves
+     */
+    public static final int MIN_SEGMENT_PIXELS = 1 << 15;
+
+    /**
+     * Alpha of the previous pixel assumed when a segment starts
+     */
+    private static final int ASSUMED_ALPHA = 0xFF_00_00_00;
+
+    // Length in bytes and number of pixels of the chunk starting with each byte, so that the scan does not branch
+    private static final byte[] CHUNK_LENGTH = new byte[256];
+    private static final byte[] CHUNK_PIXELS = new byte[256];
+
+    static {
+        for(int tag = 0; tag < 256; tag++){
+            CHUNK_LENGTH[tag] = (byte) QOIDecoder.chunkLength((byte) tag);
+            boolean run = (tag & 0b11_00_00_00) == (QOISpecification.QOI_OP_RUN_TAG & 0xFF) && CHUNK_LENGTH[tag] == 1;
+            CHUNK_PIXELS[tag] = (byte) (run ? (tag & 0b00_11_11_11) + 1 : 1);
+        }
+    }
+
+    /**
+     * Chunks describing consecutive pixels of the image
+     */
+    private static final class Segment {
+        int start;
+        int end;
+        long first;
+        long count;
+        // Number of the first pixel after which every speculated pixel is right
+        long sync;
+        // State of the decoder at the end of the segment, only the known slots are right
+        QOIDecoder.State exit;
+        // Slots of the hash table written by known pixels after the synchronisation point
+        long knownSlots = -1L;
+        // The segment contains a QOI_OP_RGBA chunk
+        boolean rgba;
+    }
+
+    // ==================================================================================
+    // ================================= DECODING METHODS ===============================
+    // ==================================================================================
+
+    /**
+     * Decode the given data into the rows of an image, in parallel on the common ForkJoinPool
+     * @apiNote Same pixels as QOIDecoder::decodeData(byte[], int, int, int[][])
+     * @param data (byte[]) - Array containing the chunks to decode
+     * @param start (int) - Index of the first chunk in data
+     * @param end (int) - Index after the last chunk in data
+     * @param image (int[][]) - Rows to fill with the ARGB pixels, all of the same length
+     * @throws AssertionError if one of the arrays is null, the bounds are invalid
+     * or the chunks do not describe exactly the pixels of the image
+     */
+    public static void decodeData(byte[] data, int start, int end, int[][] image){
+        decodeData(data, start, end, image, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Decode the given data into the rows of an image, in parallel on the given pool
+     * @apiNote Same pixels as QOIDecoder::decodeData(byte[], int, int, int[][])
+     * @param data (byte[]) - Array containing the chunks to decode
+     * @param start (int) - Index of the first chunk in data
+     * @param end (int) - Index after the last chunk in data
+     * @param image (int[][]) - Rows to fill with the ARGB pixels, all of the same length
+     * @param pool (ForkJoinPool) - Pool decoding the segments
+     * @throws AssertionError if one of the arrays is null, the bounds are invalid
+     * or the chunks do not describe exactly the pixels of the image
+     */
+    public static void decodeData(byte[] data, int start, int end, int[][] image, ForkJoinPool pool){
+        decodeData(data, start, end, image, pool, MIN_SEGMENT_PIXELS);
+    }
+
+    /**
+     * Same as QOIParallelDecoder::decodeData(byte[], int, int, int[][], ForkJoinPool)
+     * with the given minimum number of pixels per segment
+     */
+    static void decodeData(byte[] data, int start, int end, int[][] image, ForkJoinPool pool, int minSegmentPixels){
+        assert data != null : "Data is null";
+        assert image != null && image.length > 0 && image[0] != null : "Image is null";
+        assert pool != null : "Pool is null";
+        assert 0 <= start && start <= end && end <= data.length : "Bounds are invalid";
+
+        long pixels = (long) image.length * image[0].length;
+        int segments = (int) Math.max(1, Math.min(4L * pool.getParallelism(), pixels / minSegmentPixels));
+        if(pool.getParallelism() == 1 || segments == 1){
+            QOIDecoder.decodeData(data, start, end, image);
+            return;
+        }
+        List<Segment> list = split(data, start, end, pixels, segments);
+        boolean opaque = list.stream().noneMatch(segment -> segment.rgba);
+
+        // Speculation : the first segment is decoded normally, the others without their entry state
+        pool.submit(() -> list.parallelStream().forEach(segment -> {
+            if(segment.first == 0){
+                QOIDecoder.State state = new QOIDecoder.State();
+                state.idx = segment.start;
+                QOIDecoder.decodeRange(data, segment.end, state, image, 0, segment.count);
+                segment.exit = exit(state, segment);
+            } else {
+                speculate(data, segment, image, opaque);
+            }
+        })).join();
+
+        // Fix-up : chain the states and decode again the pixels before the synchronisation points.
+        // It is done in order only when the state at the end of a segment depends on it
+        List<Segment> prefixes = new ArrayList<>();
+        List<QOIDecoder.State> entries = new ArrayList<>();
+        QOIDecoder.State entry = list.get(0).exit;
+        for(Segment segment : list.subList(1, list.size())){
+            QOIDecoder.State state = copy(entry, segment.start);
+            if((entry.previous & 0xFF_00_00_00) != ASSUMED_ALPHA){
+                QOIDecoder.decodeRange(data, segment.end, state, image, segment.first, segment.count);
+                segment.exit = exit(state, segment);
+                segment.sync = segment.first;
+            } else if(segment.sync == segment.first + segment.count || segment.knownSlots != -1L){
+                QOIDecoder.decodeRange(data, segment.end, state, image, segment.first, segment.sync - segment.first);
+                segment.exit = merge(state, segment);
+            } else if(segment.sync > segment.first){
+                prefixes.add(segment);
+                entries.add(state);
+            }
+            entry = segment.exit;
+        }
+        pool.submit(() -> IntStream.range(0, prefixes.size()).parallel().forEach(iSegment -> {
+            Segment segment = prefixes.get(iSegment);
+            QOIDecoder.decodeRange(data, segment.end, entries.get(iSegment), image, segment.first, segment.sync - segment.first);
+        })).join();
+
+        // Without QOI_OP_RGBA, the speculation assumed the unknown pixels were opaque.
+        // They were all decoded again with the right state, before the synchronisation points.
+        // The image is decoded in order if one of them was not opaque
+        if(opaque && !list.stream().allMatch(segment -> isOpaque(image, segment.first, segment.sync - segment.first))){
+            QOIDecoder.decodeData(data, start, end, image);
+        }
+    }
+
+    /**
+     * Decode a file using the "Quite Ok Image" Protocol, in parallel on the common ForkJoinPool
+     * @apiNote Same image as QOIDecoder::decodeQoiFile
+     * @param content (byte[]) - Content of the file to decode
+     * @return (Image) - Decoded image
+     * @throws AssertionError if content is null or corrupted
+     */
+    public static Image decodeQoiFile(byte[] content){
+        return decodeQoiFile(content, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Decode a file using the "Quite Ok Image" Protocol, in parallel on the given pool
+     * @apiNote Same image as QOIDecoder::decodeQoiFile
+     * @param content (byte[]) - Content of the file to decode
+     * @param pool (ForkJoinPool) - Pool decoding the segments
+     * @return (Image) - Decoded image
+     * @throws AssertionError if content is null or corrupted
+     */
+    public static Image decodeQoiFile(byte[] content, ForkJoinPool pool){
+        assert content != null : "Content is null";
+        int eofStart = content.length - QOISpecification.QOI_EOF.length;
+        assert eofStart >= QOISpecification.HEADER_SIZE : "Content is too short";
+        assert Arrays.equals(content, eofStart, content.length, QOISpecification.QOI_EOF, 0, QOISpecification.QOI_EOF.length)
+                : "La signature de fin de fichier est corrompue";
+
+        int[] header = QOIDecoder.decodeHeader(ArrayUtils.extract(content, 0, QOISpecification.HEADER_SIZE));
+        int[][] data = new int[header[1]][header[0]];
+        decodeData(content, QOISpecification.HEADER_SIZE, eofStart, data, pool);
+
+        return Helper.generateImage(data, (byte)header[2], (byte)header[3]);
+    }
+
+    // ==================================================================================
+
+    /**
+     * Scan the tags of the chunks and cut them in segments of about the same number of pixels
+     */
+    private static List<Segment> split(byte[] data, int start, int end, long pixels, int segments){
+        List<Segment> list = new ArrayList<>(segments);
+        long pixel = 0;
+        long next = 0;
+        int idx = start;
+        while(idx < end){
+            if(pixel >= next){
+                Segment segment = new Segment();
+                segment.start = idx;
+                segment.first = pixel;
+                list.add(segment);
+                next = list.size() == segments ? Long.MAX_VALUE : pixels * list.size() / segments;
+            }
+            int tag = data[idx] & 0xFF;
+            if(tag == (QOISpecification.QOI_OP_RGBA_TAG & 0xFF))
+                list.get(list.size() - 1).rgba = true;
+            idx += CHUNK_LENGTH[tag];
+            pixel += CHUNK_PIXELS[tag];
+        }
+        assert idx == end && pixel == pixels : "Result invalid";
+        assert !list.isEmpty() : "Data is too short";
+
+        for(int iSegment = 0; iSegment < list.size(); iSegment++){
+            Segment segment = list.get(iSegment);
+            boolean last = iSegment == list.size() - 1;
+            segment.end = last ? end : list.get(iSegment + 1).start;
+            segment.count = (last ? pixels : list.get(iSegment + 1).first) - segment.first;
+        }
+        return list;
+    }
+
+    /**
+     * Decode a segment without knowing the state it starts with. Every pixel is written, the ones
+     * depending on the unknown state being wrong, and the pixels and slots of the hash table that
+     * do not depend on it are tracked to find the first pixel after which every pixel is right.
+     * If opaque, the alpha of every unknown pixel is assumed to be 255
+     */
+    private static void speculate(byte[] data, Segment segment, int[][] image, boolean opaque){
+        int width = image[0].length;
+        int iRow = (int) (segment.first / width);
+        int column = (int) (segment.first % width);
+        int[] row = image[iRow];
+
+        int previous = ASSUMED_ALPHA;
+        boolean colorKnown = false;
+        boolean alphaKnown = true;
+        int[] hashTable = new int[64];
+        long knownSlots = 0;
+        long pixel = segment.first;
+        long sync = segment.first;
+        int idx = segment.start;
+
+        while(idx < segment.end){
+            int chunk = data[idx] & 0xFF;
+            int count = 1;
+            if(chunk == (QOISpecification.QOI_OP_RGB_TAG & 0xFF)){
+                previous = (previous & 0xFF_00_00_00) | (data[idx + 1] & 0xFF) << 16 | (data[idx + 2] & 0xFF) << 8 | (data[idx + 3] & 0xFF);
+                colorKnown = true;
+                idx += 4;
+            } else if(chunk == (QOISpecification.QOI_OP_RGBA_TAG & 0xFF)){
+                previous = (data[idx + 4] & 0xFF) << 24 | (data[idx + 1] & 0xFF) << 16 | (data[idx + 2] & 0xFF) << 8 | (data[idx + 3] & 0xFF);
+                colorKnown = true;
+                alphaKnown = true;
+                idx += 5;
+            } else {
+                switch(chunk & 0b11_00_00_00){
+                    case QOISpecification.QOI_OP_INDEX_TAG -> {
+                        boolean known = (knownSlots & (1L << chunk)) != 0;
+                        previous = known ? hashTable[chunk] : ASSUMED_ALPHA;
+                        colorKnown = known;
+                        alphaKnown = known || opaque;
+                        idx += 1;
+                    }
+                    case QOISpecification.QOI_OP_DIFF_TAG -> {
+                        previous = QOIDecoder.addToChannels(previous, ((chunk >> 4) & 0b11) - 2, ((chunk >> 2) & 0b11) - 2, (chunk & 0b11) - 2);
+                        idx += 1;
+                    }
+                    case QOISpecification.QOI_OP_LUMA_TAG & 0xFF -> {
+                        int dg = (chunk & 0b00_11_11_11) - 32;
+                        int next = data[idx + 1] & 0xFF;
+                        previous = QOIDecoder.addToChannels(previous, dg + (next >> 4) - 8, dg, dg + (next & 0b00_00_11_11) - 8);
+                        idx += 2;
+                    }
+                    default -> {
+                        count = (chunk & 0b00_11_11_11) + 1;
+                        idx += 1;
+                    }
+                }
+            }
+            pixel += count;
+            if(colorKnown && alphaKnown){
+                int hash = QOISpecification.hash(previous);
+                hashTable[hash] = previous;
+                knownSlots |= 1L << hash;
+            } else {
+                // An unknown pixel read from a slot is written back to the same slot (or to the slot 0
+                // if the slot was never written), any other unknown pixel may overwrite any slot
+                knownSlots = (chunk & 0b11_00_00_00) == QOISpecification.QOI_OP_INDEX_TAG
+                        ? knownSlots & ~(1L << chunk | 1L) : 0;
+                sync = pixel;
+            }
+
+            if(count == 1 && column < width - 1){
+                row[column++] = previous;
+                continue;
+            }
+            while(count > 0){
+                int length = Math.min(count, width - column);
+                Arrays.fill(row, column, column + length, previous);
+                column += length;
+                count -= length;
+                if(column == width && ++iRow < image.length){
+                    row = image[iRow];
+                    column = 0;
+                }
+            }
+        }
+        assert pixel == segment.first + segment.count : "Result invalid";
+
+        segment.sync = sync;
+        segment.exit = new QOIDecoder.State();
+        segment.exit.previous = previous;
+        segment.exit.idx = segment.end;
+        System.arraycopy(hashTable, 0, segment.exit.hashTable, 0, hashTable.length);
+        segment.knownSlots = knownSlots;
+    }
+
+    private static QOIDecoder.State exit(QOIDecoder.State state, Segment segment){
+        assert state.idx == segment.end && state.run == 0 : "Result invalid";
+        return state;
+    }
+
+    /**
+     * State at the end of a segment, from the right state at its synchronisation point
+     */
+    private static QOIDecoder.State merge(QOIDecoder.State state, Segment segment){
+        if(state.idx == segment.end)
+            return exit(state, segment);
+        assert state.run == 0 : "Result invalid";
+        for(int slot = 0; slot < 64; slot++){
+            if((segment.knownSlots & (1L << slot)) != 0)
+                state.hashTable[slot] = segment.exit.hashTable[slot];
+        }
+        state.previous = segment.exit.previous;
+        state.idx = segment.end;
+        return state;
+    }
+
+    private static boolean isOpaque(int[][] image, long from, long count){
+        int width = image[0].length;
+        long pixel = from;
+        while(pixel < from + count){
+            int[] row = image[(int) (pixel / width)];
+            int last = (int) Math.min(width, pixel % width + from + count - pixel);
+            for(int column = (int) (pixel % width); column < last; column++){
+                if((row[column] & 0xFF_00_00_00) != ASSUMED_ALPHA)
+                    return false;
+            }
+            pixel += last - pixel % width;
+        }
+        return true;
+    }
+
+    private static QOIDecoder.State copy(QOIDecoder.State state, int idx){
+        QOIDecoder.State copy = new QOIDecoder.State();
+        copy.previous = state.previous;
+        copy.idx = idx;
+        System.arraycopy(state.hashTable, 0, copy.hashTable, 0, state.hashTable.length);
+        return copy;
+    }
+
+}
\ No newline at end of file
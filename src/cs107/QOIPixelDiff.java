@@ -0,0 +1,202 @@
+package cs107;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compare the pixels of two "Quite Ok Image" files, whatever chunks encode them
+ * @apiNote Both files are decoded in lockstep, row by row, with QOIStreamDecoder, and each pair
+ * of rows is compared with Arrays::mismatch as soon as it is decoded. Only two rows, the input buffers
+ * and at most MAX_REGIONS regions are held in memory, whatever the size of the images
+ * @version 1.0
+ * @since 1.0
+ */
+public final class QOIPixelDiff {
+
+    // Utility class
+    private QOIPixelDiff(){}
+
+    /**
+     * Maximum number of regions kept in a report, the next ones are only counted
+     */
+    public static final int MAX_REGIONS = 64;
+
+    /**
+     * Rectangle of pixels
+     * @param x (int) - Column of the left pixels
+     * @param y (int) - Row of the top pixels
+     * @param width (int) - Number of columns
+     * @param height (int) - Number of rows
+     */
+    public record Region(int x, int y, int width, int height){}
+
+    /**
+     * Outcome of a comparison
+     * @param width (int) - Width of the images, the one of the first image if they differ
+     * @param height (int) - Height of the images, the one of the first image if they differ
+     * @param sameSize (boolean) - Both images have the same dimensions, otherwise their pixels are not compared
+     * @param sameHeader (boolean) - Both headers are equal, channels and color space included
+     * @param comparedRows (int) - Number of rows compared before the comparison stopped
+     * @param differentRows (long) - Number of compared rows with at least one different pixel
+     * @param differentPixels (long) - Number of different pixels in the compared rows
+     * @param bounds (Region) - Smallest rectangle containing all the different pixels, null if there is none
+     * @param regions (List) - Bounding boxes of the groups of consecutive different rows, at most MAX_REGIONS
+     * @param regionCount (long) - Number of groups of consecutive different rows, including the ones not kept
+     */
+    public record Report(int width, int height, boolean sameSize, boolean sameHeader, int comparedRows,
+                         long differentRows, long differentPixels, Region bounds, List<Region> regions, long regionCount){
+
+        /**
+         * @return (boolean) - true if the images have the same dimensions and the same pixels
+         */
+        public boolean same(){
+            return sameSize && comparedRows == height && differentPixels == 0;
+        }
+
+        /**
+         * Print the report
+         * @param out (PrintStream) - Where to print
+         */
+        public void print(PrintStream out){
+            if(!sameSize){
+                out.println("== The images do not have the same dimensions");
+                return;
+            }
+            out.printf("== %d x %d pixels, %s headers%n", width, height, sameHeader ? "same" : "different");
+            if(same()){
+                out.println("== The images have the same pixels");
+                return;
+            }
+            out.printf("== %d different pixels in %d rows, %d rows compared%n", differentPixels, differentRows, comparedRows);
+            out.printf("== Bounds : %s%n", format(bounds));
+            for(var region : regions){
+                out.printf("   %s%n", format(region));
+            }
+            if(regionCount > regions.size())
+                out.printf("   ... %d more regions%n", regionCount - regions.size());
+        }
+
+        private static String format(Region region){
+            return String.format("(%d, %d) to (%d, %d), %d x %d", region.x(), region.y(),
+                    region.x() + region.width() - 1, region.y() + region.height() - 1, region.width(), region.height());
+        }
+    }
+
+    // ==================================================================================
+    // ================================= COMPARISON API =================================
+    // ==================================================================================
+
+    /**
+     * Compare the pixels of two files
+     * @param path_1 (String) - Relative or Absolute path to the first file
+     * @param path_2 (String) - Relative or Absolute path to the second file
+     * @param stopAtFirst (boolean) - Stop after the first row containing a different pixel
+     * @return (Report) - The differences
+     * @throws AssertionError if one of the paths is null or one of the files is corrupted
+     */
+    public static Report compare(String path_1, String path_2, boolean stopAtFirst){
+        assert path_1 != null && path_2 != null : "Path is null";
+        try(var input_1 = Files.newInputStream(Path.of(path_1));
+            var input_2 = Files.newInputStream(Path.of(path_2))){
+            return compare(input_1, input_2, stopAtFirst);
+        } catch (IOException e){
+            return Helper.fail("An error occurred while trying to read from : \"%s\" or \"%s\"%n", path_1, path_2);
+        }
+    }
+
+    /**
+     * Compare the pixels of two encoded images
+     * @param input_1 (InputStream) - Where to read the first image from, closed at the end
+     * @param input_2 (InputStream) - Where to read the second image from, closed at the end
+     * @param stopAtFirst (boolean) - Stop after the first row containing a different pixel
+     * @return (Report) - The differences
+     * @throws AssertionError if one of the inputs is null or corrupted
+     */
+    public static Report compare(InputStream input_1, InputStream input_2, boolean stopAtFirst){
+        assert input_1 != null && input_2 != null : "Input is null";
+        // The inputs are closed even if one of the headers is corrupted
+        try(input_1; input_2;
+            var decoder_1 = new QOIStreamDecoder(input_1);
+            var decoder_2 = new QOIStreamDecoder(input_2)){
+            int width = decoder_1.width();
+            int height = decoder_1.height();
+            boolean sameHeader = decoder_1.channels() == decoder_2.channels() && decoder_1.colorSpace() == decoder_2.colorSpace();
+            if(width != decoder_2.width() || height != decoder_2.height())
+                return new Report(width, height, false, false, 0, 0, 0, null, List.of(), 0);
+
+            int[] row_1 = new int[width];
+            int[] row_2 = new int[width];
+            List<Region> regions = new ArrayList<>();
+            long regionCount = 0;
+            long differentRows = 0;
+            long differentPixels = 0;
+            // Bounds of all the differences, then of the current group of consecutive rows
+            int left = width, right = -1, top = -1, bottom = -1;
+            int groupLeft = width, groupRight = -1, groupTop = -1;
+            int y = 0;
+            for(; y < height; y++){
+                decoder_1.readRow(row_1, 0);
+                decoder_2.readRow(row_2, 0);
+                int first = Arrays.mismatch(row_1, row_2);
+                if(first < 0){
+                    if(groupTop >= 0){
+                        regionCount++;
+                        if(regions.size() < MAX_REGIONS)
+                            regions.add(new Region(groupLeft, groupTop, groupRight - groupLeft + 1, y - groupTop));
+                        groupLeft = width;
+                        groupRight = groupTop = -1;
+                    }
+                    continue;
+                }
+                int last = width - 1;
+                while(row_1[last] == row_2[last])
+                    last--;
+                for(int x = first; x <= last; x++){
+                    if(row_1[x] != row_2[x])
+                        differentPixels++;
+                }
+                differentRows++;
+                if(top < 0)
+                    top = y;
+                bottom = y;
+                left = Math.min(left, first);
+                right = Math.max(right, last);
+                if(groupTop < 0)
+                    groupTop = y;
+                groupLeft = Math.min(groupLeft, first);
+                groupRight = Math.max(groupRight, last);
+                if(stopAtFirst){
+                    y++;
+                    break;
+                }
+            }
+            if(groupTop >= 0){
+                regionCount++;
+                if(regions.size() < MAX_REGIONS)
+                    regions.add(new Region(groupLeft, groupTop, groupRight - groupLeft + 1, y - groupTop));
+            }
+            Region bounds = top < 0 ? null : new Region(left, top, right - left + 1, bottom - top + 1);
+            return new Report(width, height, true, sameHeader, y, differentRows, differentPixels, bounds, List.copyOf(regions), regionCount);
+        } catch (IOException e){
+            return Helper.fail("An error occurred while closing the inputs : %s%n", e.getMessage());
+        }
+    }
+
+    /**
+     * Compare the pixels of two files and print the report
+     * @param args (String[]) - first file, second file, [--first to stop at the first difference]
+     */
+    public static void main(String[] args){
+        if(args.length < 2){
+            System.out.println("Usage : QOIPixelDiff <first file> <second file> [--first]");
+            return;
+        }
+        compare(args[0], args[1], args.length > 2 && args[2].equals("--first")).print(System.out);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,173 @@
+package cs107;
+
+import java.nio.ByteBuffer;
+
+/**
+ * "Quite Ok Image" Decoder fed with fragments of the file
+ * @apiNote The fragments can have any size and split any chunk. The decoder never blocks:
+ * it decodes what it can from each fragment, keeps the incomplete chunk for the next call
+ * and hands every completed row to a listener. Only the decoder state, one row and
+ * a fixed size buffer are kept in memory
+ * @version 1.0
+ * @since 1.0
+ */
+public final class QOIPushDecoder {
+
+    /**
+     * Receives the decoded image
+     */
+    public interface RowListener {
+
+        /**
+         * Called once the header is decoded, before the first row
+         * @param width (int) - Width of the image
+         * @param height (int) - Height of the image
+         * @param channels (byte) - Number of channels
+         * @param colorSpace (byte) - Color space
+         */
+        default void onHeader(int width, int height, byte channels, byte colorSpace){}
+
+        /**
+         * Called for every decoded row, in order
+         * @param row (int) - Index of the row in the image
+         * @param pixels (int[]) - ARGB pixels of the row. The array is reused for the next row
+         */
+        void onRow(int row, int[] pixels);
+    }
+
+    /**
+     * Default size of the internal buffer
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 13;
+
+    private final RowListener listener;
+    private final byte[] buffer;
+    private final QOIDecoder.State state = new QOIDecoder.State();
+    // Started once the header is decoded
+    private QOIEvents.Decode event;
+    private int limit = 0;
+    private int width = -1;
+    private int height = -1;
+    private int[] row;
+    private int decodedRows = 0;
+    private int rowFill = 0;
+    private int eofMatched = 0;
+    private long chunkBytes = 0;
+
+    /**
+     * Create a decoder waiting for the first fragment of the file
+     * @param listener (RowListener) - Receives the decoded rows
+     * @throws AssertionError if the listener is null
+     */
+    public QOIPushDecoder(RowListener listener){
+        this(listener, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Create a decoder waiting for the first fragment of the file
+     * @param listener (RowListener) - Receives the decoded rows
+     * @param bufferSize (int) - Size of the internal buffer
+     * @throws AssertionError if the listener is null or the buffer is too small
+     */
+    public QOIPushDecoder(RowListener listener, int bufferSize){
+        assert listener != null : "Listener is null";
+        assert bufferSize >= QOISpecification.HEADER_SIZE + 5 : "Buffer is too small";
+        this.listener = listener;
+        this.buffer = new byte[bufferSize];
+    }
+
+    // ==================================================================================
+    // ================================ DECODING METHODS ================================
+    // ==================================================================================
+
+    /**
+     * Decode the next fragment of the file. All the remaining bytes of the fragment are consumed
+     * @param fragment (ByteBuffer) - Next bytes of the file (heap or direct)
+     * @throws AssertionError if the fragment is null or the file is corrupted
+     */
+    public void feed(ByteBuffer fragment){
+        assert fragment != null : "Fragment is null";
+        while(fragment.hasRemaining()){
+            int length = Math.min(fragment.remaining(), buffer.length - limit);
+            fragment.get(buffer, limit, length);
+            limit += length;
+            process();
+            compact();
+        }
+    }
+
+    /**
+     * @return (boolean) - true once all the rows and the end of file signature were decoded
+     */
+    public boolean isDone(){
+        return decodedRows == height && eofMatched == QOISpecification.QOI_EOF.length;
+    }
+
+    /**
+     * @return (int) - Width of the image, -1 if the header was not decoded yet
+     */
+    public int width(){
+        return width;
+    }
+
+    /**
+     * @return (int) - Height of the image, -1 if the header was not decoded yet
+     */
+    public int height(){
+        return height;
+    }
+
+    // ==================================================================================
+
+    private void process(){
+        if(row == null){
+            if(limit < QOISpecification.HEADER_SIZE)
+                return;
+            int[] header = QOIDecoder.decodeHeader(ArrayUtils.extract(buffer, 0, QOISpecification.HEADER_SIZE));
+            width = header[0];
+            height = header[1];
+            row = new int[width];
+            state.idx = QOISpecification.HEADER_SIZE;
+            event = QOIEvents.decode();
+            listener.onHeader(width, height, (byte) header[2], (byte) header[3]);
+        }
+
+        int first = state.idx;
+        while(decodedRows < height){
+            // Every chunk starting 4 bytes before the limit is complete
+            rowFill += QOIDecoder.decodePixels(buffer, limit - 4, state, row, rowFill, width - rowFill);
+            // The chunks in the last bytes are decoded one by one, as long as they are complete
+            while(rowFill < width && state.idx < limit && state.idx + QOIDecoder.chunkLength(buffer[state.idx]) <= limit){
+                rowFill += QOIDecoder.decodePixels(buffer, state.idx + 1, state, row, rowFill, width - rowFill);
+            }
+            if(rowFill < width)
+                break;
+            listener.onRow(decodedRows, row);
+            decodedRows++;
+            rowFill = 0;
+        }
+        QOIEvents.chunks(event, buffer, first, state.idx);
+        chunkBytes += state.idx - first;
+        if(decodedRows < height)
+            return;
+
+        while(state.idx < limit){
+            assert eofMatched < QOISpecification.QOI_EOF.length : "Data after the end of file";
+            assert buffer[state.idx] == QOISpecification.QOI_EOF[eofMatched] : "La signature de fin de fichier est corrompue";
+            state.idx++;
+            eofMatched++;
+            if(eofMatched == QOISpecification.QOI_EOF.length)
+                QOIEvents.streamed(event, chunkBytes, width, height);
+        }
+    }
+
+    private void compact(){
+        if(row == null)
+            return;
+        int remaining = limit - state.idx;
+        System.arraycopy(buffer, state.idx, buffer, 0, remaining);
+        state.idx = 0;
+        limit = remaining;
+    }
+
+}
\ No newline at end of file
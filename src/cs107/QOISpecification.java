@@ -77,6 +77,11 @@ public final class QOISpecification {
      */
     public static final byte[] START_PIXEL = new byte[]{0, 0, 0, (byte) 255};
 
+    /**
+     * START_PIXEL packed as an ARGB integer (same layout as Helper.Image::data)
+     */
+    public static final int START_PIXEL_ARGB = 0xFF_00_00_00;
+
     // ==================================================================================
     // ============================ "Quite Ok Image" EOF ================================
     // ==================================================================================
@@ -136,4 +141,20 @@ public final class QOISpecification {
         return (byte) (tmp < 0 ? tmp + 64 : tmp);
     }
 
+    /**
+     * Hash a given packed pixel using the hash function specific to "Quite Ok Image" format
+     * @apiNote Gives the same index as QOISpecification::hash(byte[]) without unpacking the pixel.
+     * The signed and unsigned versions of a channel only differ by a multiple of 256, hence
+     * the same value modulo 64
+     * @param pixel (int) - ARGB pixel to hash
+     * @return (int) - hash of the pixel
+     */
+    public static int hash(int pixel){
+        // red | blue and alpha | green, one channel every 16 bits. Multiplying the pairs puts
+        // red * 3 + blue * 7 and alpha * 11 + green * 5 in the bits 16 to 31 of the products
+        int redBlue = pixel & 0x00_FF_00_FF;
+        int alphaGreen = (pixel >>> 8) & 0x00_FF_00_FF;
+        return ((redBlue * (3 + (7 << 16)) + alphaGreen * (11 + (5 << 16))) >>> 16) & 0b00_11_11_11;
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,270 @@
+package cs107;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * "Quite Ok Image" Decoder working row by row
+ * @apiNote The file is read through a fixed size buffer, rows can be used
+ * as soon as the bytes describing them have arrived.
+ * The decoded pixels are the same as the ones of QOIDecoder::decodeQoiFile
+ * @version 1.0
+ * @since 1.0
+ */
+public final class QOIStreamDecoder implements AutoCloseable {
+
+    /**
+     * Default size of the input buffer
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+    private final ReadableByteChannel input;
+    private final byte[] buffer;
+    private final ByteBuffer wrapper;
+    private final QOIDecoder.State state = new QOIDecoder.State();
+    private final QOIEvents.Decode event = QOIEvents.decode();
+    private final int width;
+    private final int height;
+    private final byte channels;
+    private final byte colorSpace;
+    private int limit = 0;
+    private int readRows = 0;
+    private long chunkBytes = 0;
+    private boolean finished = false;
+
+    /**
+     * Create a decoder reading from a stream and read the header
+     * @param input (InputStream) - Where to read the file from
+     * @throws AssertionError if the input is null or the header is corrupted
+     */
+    public QOIStreamDecoder(InputStream input){
+        this(Channels.newChannel(input), DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Create a decoder reading from a channel and read the header
+     * @param input (ReadableByteChannel) - Where to read the file from
+     * @param bufferSize (int) - Size of the buffer used to read the file
+     * @throws AssertionError if the input is null, the buffer is too small or the header is corrupted
+     */
+    public QOIStreamDecoder(ReadableByteChannel input, int bufferSize){
+        assert input != null : "Input is null";
+        assert bufferSize >= QOISpecification.HEADER_SIZE + QOISpecification.QOI_EOF.length : "Buffer is too small";
+        this.input = input;
+        this.buffer = new byte[bufferSize];
+        this.wrapper = ByteBuffer.wrap(buffer);
+
+        while(limit < QOISpecification.HEADER_SIZE && !finished)
+            refill();
+        assert limit >= QOISpecification.HEADER_SIZE : "Header is truncated";
+        int[] header = QOIDecoder.decodeHeader(ArrayUtils.extract(buffer, 0, QOISpecification.HEADER_SIZE));
+        width = header[0];
+        height = header[1];
+        channels = (byte) header[2];
+        colorSpace = (byte) header[3];
+        state.idx = QOISpecification.HEADER_SIZE;
+    }
+
+    // ==================================================================================
+    // ================================ IMAGE INFORMATION ===============================
+    // ==================================================================================
+
+    /**
+     * @return (int) - Width of the image
+     */
+    public int width(){
+        return width;
+    }
+
+    /**
+     * @return (int) - Height of the image
+     */
+    public int height(){
+        return height;
+    }
+
+    /**
+     * @return (byte) - Number of channels of the image
+     */
+    public byte channels(){
+        return channels;
+    }
+
+    /**
+     * @return (byte) - Color space of the image
+     */
+    public byte colorSpace(){
+        return colorSpace;
+    }
+
+    // ==================================================================================
+    // ================================ DECODING METHODS ================================
+    // ==================================================================================
+
+    /**
+     * @return (boolean) - true if some rows of the image were not read yet
+     */
+    public boolean hasNextRow(){
+        return readRows < height;
+    }
+
+    /**
+     * Decode the next row of the image in a new array
+     * @return (int[]) - ARGB pixels of the row
+     * @throws AssertionError if all the rows were already read or the file is corrupted
+     */
+    public int[] readRow(){
+        int[] row = new int[width];
+        readRow(row, 0);
+        return row;
+    }
+
+    /**
+     * Decode the next row of the image in the given array
+     * @param pixels (int[]) - Where to write the ARGB pixels of the row
+     * @param offset (int) - Index in pixels where to write the first pixel of the row
+     * @throws AssertionError if pixels is null, cannot contain a whole row from offset,
+     * all the rows were already read or the file is corrupted
+     * @throws RuntimeException if the input ends before the row (See Helper::fail)
+     */
+    public void readRow(int[] pixels, int offset){
+        assert pixels != null : "Pixels is null";
+        assert offset >= 0 && offset + width <= pixels.length : "Offset is invalid";
+        assert hasNextRow() : "All the rows were already read";
+
+        int decoded = 0;
+        while(decoded < width){
+            // Until the end of the input is reached, the last bytes may belong to an incomplete chunk
+            int end = finished ? limit - QOISpecification.QOI_EOF.length : limit - 4;
+            int first = state.idx;
+            decoded += QOIDecoder.decodePixels(buffer, end, state, pixels, offset + decoded, width - decoded);
+            QOIEvents.chunks(event, buffer, first, state.idx);
+            chunkBytes += state.idx - first;
+            if(decoded < width){
+                // Without assertions, a truncated input would otherwise be refilled forever
+                if(finished)
+                    Helper.fail("Data is too short, the row %d is truncated%n", readRows);
+                refill();
+            }
+        }
+        readRows++;
+        if(readRows == height)
+            checkEnd();
+    }
+
+    /**
+     * Decode all the remaining rows into a pixel buffer
+     * @apiNote One row is held at a time, so the buffer can be larger than the heap (See PixelFile)
+     * @param pixels (PixelBuffer) - Where to write the pixels, the row y of the image is written in its row y
+     * @throws AssertionError if the buffer is null, does not have the size of the image or the file is corrupted
+     */
+    public void readRows(PixelBuffer pixels){
+        assert pixels != null : "Pixels is null";
+        assert pixels.width() == width && pixels.height() == height : "Pixels does not have the size of the image";
+        int[] row = new int[width];
+        while(hasNextRow()){
+            int y = readRows;
+            readRow(row, 0);
+            pixels.setRow(y, row, 0);
+        }
+    }
+
+    /**
+     * Close the input
+     */
+    @Override
+    public void close(){
+        try {
+            input.close();
+        } catch (IOException e){
+            Helper.fail("An error occurred while closing the input : %s%n", e.getMessage());
+        }
+    }
+
+    /**
+     * Decode a whole image from a stream
+     * @param input (InputStream) - Where to read the file from, closed at the end
+     * @return (Helper.Image) - Decoded image
+     * @throws AssertionError if the input is null or the file is corrupted
+     */
+    public static Helper.Image decode(InputStream input){
+        try(var decoder = new QOIStreamDecoder(input)){
+            int[][] data = new int[decoder.height()][];
+            for(int iRow = 0; iRow < data.length; iRow++){
+                data[iRow] = decoder.readRow();
+            }
+            return Helper.generateImage(data, decoder.channels(), decoder.colorSpace());
+        }
+    }
+
+    /**
+     * Decode a whole image from a stream into a new file of pixels
+     * @apiNote Neither the encoded file nor the pixels are held in memory (See PixelFile)
+     * @param input (InputStream) - Where to read the file from, closed at the end
+     * @param path (String) - Relative or Absolute path to the file of pixels, replaced if it exists
+     * @return (PixelFile) - The decoded pixels, to be closed by the caller
+     * @throws AssertionError if the input or the path is null or the file is corrupted,
+     * in which case the file of pixels is closed and deleted
+     */
+    public static PixelFile decode(InputStream input, String path){
+        assert path != null : "Path is null";
+        try(var decoder = new QOIStreamDecoder(input)){
+            var file = PixelFile.create(path, decoder.width(), decoder.height());
+            try {
+                decoder.readRows(file.pixels());
+                return file;
+            } catch (RuntimeException | Error e){
+                // The partially decoded pixels are useless, do not leave them on the disk
+                file.close();
+                try {
+                    Files.deleteIfExists(Path.of(path));
+                } catch (IOException suppressed){
+                    e.addSuppressed(suppressed);
+                }
+                throw e;
+            }
+        }
+    }
+
+    // ==================================================================================
+
+    /**
+     * Move the unread bytes to the beginning of the buffer and read at least one more byte,
+     * unless the end of the input is reached
+     */
+    private void refill(){
+        int remaining = limit - state.idx;
+        System.arraycopy(buffer, state.idx, buffer, 0, remaining);
+        state.idx = 0;
+        wrapper.clear().position(remaining);
+        try {
+            int read = 0;
+            while(read == 0 && wrapper.hasRemaining()){
+                read = input.read(wrapper);
+            }
+            if(read < 0)
+                finished = true;
+        } catch (IOException e){
+            Helper.fail("An error occurred while reading the encoded image : %s%n", e.getMessage());
+        }
+        limit = wrapper.position();
+    }
+
+    /**
+     * Check that the chunks are followed by the end of file signature
+     */
+    private void checkEnd(){
+        while(limit - state.idx < QOISpecification.QOI_EOF.length && !finished)
+            refill();
+        assert Arrays.equals(buffer, state.idx, Math.min(limit, state.idx + QOISpecification.QOI_EOF.length),
+                QOISpecification.QOI_EOF, 0, QOISpecification.QOI_EOF.length) : "La signature de fin de fichier est corrompue";
+        QOIEvents.streamed(event, chunkBytes, width, height);
+    }
+
+}
\ No newline at end of file
@@ -0,0 +1,312 @@
+package cs107;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.function.Supplier;
+
+/**
+ * "Quite Ok Image" Encoder working row by row
+ * @apiNote Only the previous pixel, the pending run, the hash table and a fixed size
+ * buffer are kept in memory, whatever the size of the image.
+ * The produced file is the same as the one of QOIEncoder::qoiFile
+ * @version 1.0
+ * @since 1.0
+ */
+public final class QOIStreamEncoder implements AutoCloseable {
+
+    /**
+     * Default size of the output buffer
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+    private final WritableByteChannel output;
+    private final byte[] buffer;
+    private final ByteBuffer wrapper;
+    private final QOIEncoder.State state = new QOIEncoder.State();
+    private final QOIEvents.Encode event = QOIEvents.encode();
+    private final int width;
+    private final int height;
+    private int position = 0;
+    private int writtenRows = 0;
+    private long chunkBytes = 0;
+    private boolean closed = false;
+
+    /**
+     * Create an encoder writing to a stream and write the header
+     * @param output (OutputStream) - Where to write the file
+     * @param width (int) - Width of the image
+     * @param height (int) - Height of the image
+     * @param channels (byte) - Number of channels
+     * @param colorSpace (byte) - Color space
+     * @throws AssertionError if the output is null or the image format is invalid
+     */
+    public QOIStreamEncoder(OutputStream output, int width, int height, byte channels, byte colorSpace){
+        this(Channels.newChannel(output), width, height, channels, colorSpace, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Create an encoder writing to a channel and write the header
+     * @param output (WritableByteChannel) - Where to write the file
+     * @param width (int) - Width of the image
+     * @param height (int) - Height of the image
+     * @param channels (byte) - Number of channels
+     * @param colorSpace (byte) - Color space
+     * @param bufferSize (int) - Size of the buffer the chunks are written in before being flushed
+     * @throws AssertionError if the output is null, the buffer is too small or the image format is invalid
+     */
+    public QOIStreamEncoder(WritableByteChannel output, int width, int height, byte channels, byte colorSpace, int bufferSize){
+        assert output != null : "Output is null";
+        assert width > 0 && height > 0 : "Width or height is invalid";
+        assert bufferSize >= QOISpecification.HEADER_SIZE + 6 : "Buffer is too small";
+        this.output = output;
+        this.width = width;
+        this.height = height;
+        this.buffer = new byte[bufferSize];
+        this.wrapper = ByteBuffer.wrap(buffer);
+
+        byte[] header = QOIEncoder.qoiHeader(width, height, channels, colorSpace);
+        System.arraycopy(header, 0, buffer, 0, header.length);
+        position = header.length;
+    }
+
+    // ==================================================================================
+    // ================================ ENCODING METHODS ================================
+    // ==================================================================================
+
+    /**
+     * Encode the next row of the image
+     * @param row (int[]) - ARGB pixels of the row
+     * @throws AssertionError if the row is null, has not the width of the image,
+     * all the rows were already written or the encoder is closed
+     */
+    public void writeRow(int[] row){
+        assert row != null : "Row is null";
+        assert row.length == width : "Row does not have the width of the image";
+        writeRow(row, 0);
+    }
+
+    /**
+     * Encode the next row of the image, read from a larger array
+     * @param pixels (int[]) - ARGB pixels
+     * @param offset (int) - Index in pixels of the first pixel of the row
+     * @throws AssertionError if pixels is null, does not contain a whole row from offset,
+     * all the rows were already written or the encoder is closed
+     */
+    public void writeRow(int[] pixels, int offset){
+        assert !closed : "Encoder is closed";
+        assert pixels != null : "Pixels is null";
+        assert offset >= 0 && offset + width <= pixels.length : "Offset is invalid";
+        assert writtenRows < height : "All the rows were already written";
+
+        int from = offset;
+        int to = offset + width;
+        while(from < to){
+            // A chunk takes at most 5 bytes, plus one for the run pending from the previous call
+            int room = (buffer.length - position - 1) / 5;
+            if(room == 0){
+                flushBuffer();
+                continue;
+            }
+            int next = Math.min(to, from + room);
+            int first = position;
+            position = QOIEncoder.encodePixels(pixels, from, next, state, buffer, position);
+            QOIEvents.chunks(event, buffer, first, position);
+            chunkBytes += position - first;
+            from = next;
+        }
+        writtenRows++;
+    }
+
+    /**
+     * Encode all the remaining rows, pulling them from a supplier
+     * @param rows (Supplier) - Gives the next row of the image each time it is called
+     * @throws AssertionError if the supplier is null or gives an invalid row
+     */
+    public void writeRows(Supplier<int[]> rows){
+        assert rows != null : "Supplier is null";
+        while(writtenRows < height){
+            writeRow(rows.get());
+        }
+    }
+
+    /**
+     * Encode all the remaining rows, read from a pixel buffer
+     * @apiNote One row is copied at a time, so the buffer can be larger than the heap (See PixelFile)
+     * @param pixels (PixelBuffer) - Pixels of the image, the row y is encoded as the row y of the image
+     * @throws AssertionError if the buffer is null or does not have the size of the image
+     */
+    public void writeRows(PixelBuffer pixels){
+        assert pixels != null : "Pixels is null";
+        assert pixels.width() == width && pixels.height() == height : "Pixels does not have the size of the image";
+        int[] row = new int[width];
+        while(writtenRows < height){
+            pixels.getRow(writtenRows, row, 0);
+            writeRow(row);
+        }
+    }
+
+    /**
+     * Write the pending run and the end of file, then close the output
+     * @apiNote If some rows were not written, the output is discarded instead (See QOIStreamEncoder::discard)
+     * @throws RuntimeException if some rows of the image were not written or the end of the file
+     * cannot be written (See Helper::fail), the output is then discarded
+     */
+    @Override
+    public void close(){
+        if(closed)
+            return;
+        if(writtenRows < height){
+            // A truncated image must neither replace the file nor leak the output
+            discard();
+            Helper.fail("Some rows of the image were not written, %d of %d%n", writtenRows, height);
+        }
+        closed = true;
+        try {
+            if(buffer.length - position < 1 + QOISpecification.QOI_EOF.length)
+                flushBuffer();
+            int first = position;
+            position = QOIEncoder.flush(state, buffer, position);
+            QOIEvents.chunks(event, buffer, first, position);
+            chunkBytes += position - first;
+            System.arraycopy(QOISpecification.QOI_EOF, 0, buffer, position, QOISpecification.QOI_EOF.length);
+            position += QOISpecification.QOI_EOF.length;
+            flushBuffer();
+            output.close();
+            QOIEvents.streamed(event, chunkBytes, width, height);
+        } catch (IOException e){
+            release(e);
+            Helper.fail("An error occurred while closing the output : %s%n", e.getMessage());
+        } catch (RuntimeException | Error e){
+            release(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Close the output without finishing the image: a FileOutput is discarded, so in atomic mode
+     * the file keeps its old content, any other output is only closed
+     * @apiNote To be called instead of close when the rows cannot all be written
+     */
+    public void discard(){
+        abort(null);
+    }
+
+    /**
+     * Encode a whole image to a stream
+     * @param image (Helper.Image) - Image to encode
+     * @param output (OutputStream) - Where to write the file, closed at the end
+     * @throws AssertionError if the image or the output is null
+     */
+    public static void encode(Helper.Image image, OutputStream output){
+        assert image != null : "Image is null";
+        var pixels = image.pixels();
+        try(var encoder = new QOIStreamEncoder(output, pixels.width(), pixels.height(), image.channels(), image.color_space())){
+            encoder.writeRows(pixels);
+        }
+    }
+
+    /**
+     * Encode a whole image to a file of the disk (in the folder "res/")
+     * @param image (Helper.Image) - Image to encode
+     * @param path (String) - Relative or Absolute path to the file
+     * @param atomic (boolean) - Only replace the file once the image is completely written
+     * @param durable (boolean) - Force the file to the storage device before returning
+     * @throws AssertionError if the image or the path is null
+     */
+    public static void encode(Helper.Image image, String path, boolean atomic, boolean durable){
+        assert image != null : "Image is null";
+        assert path != null : "Path is null";
+        var pixels = image.pixels();
+        var encoder = open(path, atomic, durable, pixels.width(), pixels.height(), image.channels(), image.color_space());
+        try {
+            encoder.writeRows(pixels);
+        } catch (RuntimeException | Error e){
+            encoder.abort(e);
+            throw e;
+        }
+        encoder.close();
+    }
+
+    /**
+     * Encode the pixels of a buffer to a file of the disk (in the folder "res/")
+     * @apiNote Neither the pixels nor the encoded file are held in memory (See PixelFile)
+     * @param pixels (PixelBuffer) - Pixels of the image
+     * @param channels (byte) - Number of channels
+     * @param colorSpace (byte) - Color space
+     * @param path (String) - Relative or Absolute path to the file
+     * @param atomic (boolean) - Only replace the file once the image is completely written
+     * @param durable (boolean) - Force the file to the storage device before returning
+     * @throws AssertionError if the pixels or the path is null or the image format is invalid
+     */
+    public static void encode(PixelBuffer pixels, byte channels, byte colorSpace, String path, boolean atomic, boolean durable){
+        assert pixels != null : "Pixels is null";
+        assert path != null : "Path is null";
+        var encoder = open(path, atomic, durable, pixels.width(), pixels.height(), channels, colorSpace);
+        try {
+            encoder.writeRows(pixels);
+        } catch (RuntimeException | Error e){
+            encoder.abort(e);
+            throw e;
+        }
+        encoder.close();
+    }
+
+    // ==================================================================================
+
+    /**
+     * Create an encoder writing to a file, the file is discarded if the header is invalid
+     */
+    private static QOIStreamEncoder open(String path, boolean atomic, boolean durable, int width, int height, byte channels, byte colorSpace){
+        var output = Helper.openOutput(path, atomic, durable);
+        try {
+            return new QOIStreamEncoder(output, width, height, channels, colorSpace, DEFAULT_BUFFER_SIZE);
+        } catch (RuntimeException | Error e){
+            output.discard(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Close the encoder and discard its output
+     * @param failure (Throwable) - Failure the errors are added to, null to fail with them
+     */
+    private void abort(Throwable failure){
+        if(closed)
+            return;
+        closed = true;
+        release(failure);
+    }
+
+    /**
+     * Discard a FileOutput, only close any other output
+     * @param failure (Throwable) - Failure the errors are added to, null to fail with them
+     */
+    private void release(Throwable failure){
+        try {
+            if(output instanceof FileOutput file)
+                file.discard();
+            else
+                output.close();
+        } catch (IOException e){
+            if(failure == null)
+                Helper.fail("An error occurred while discarding the output : %s%n", e.getMessage());
+            failure.addSuppressed(e);
+        }
+    }
+
+    private void flushBuffer(){
+        wrapper.clear().limit(position);
+        try {
+            while(wrapper.hasRemaining()){
+                output.write(wrapper);
+            }
+        } catch (IOException e){
+            Helper.fail("An error occurred while writing the encoded image : %s%n", e.getMessage());
+        }
+        position = 0;
+    }
+
+}
\ No newline at end of file
@@ -0,0 +1,370 @@
+package cs107;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Container storing an image as independently encoded "Quite Ok Image" tiles
+ * @apiNote Layout of the container :
+ * <pre>
+ * "qoit" | width (4) | height (4) | channels (1) | color space (1)  -- same layout as the QOI header
+ * tile width (4) | tile height (4)
+ * offset table : one offset (8) per tile, then the end of the last tile
+ * tiles, row after row, each made of the usual QOI chunks
+ * QOI_EOF
+ * </pre>
+ * Every tile is encoded from QOISpecification.START_PIXEL with an empty hash table and
+ * ends without pending run, so the tiles can be encoded and decoded in parallel
+ * @version 1.0
+ * @since 1.0
+ */
+public final class TiledQOI {
+
+    // Utility class
+    private TiledQOI(){}
+
+    /**
+     * Magic Number of a tiled "Quite Ok Image" container
+     */
+    public static final byte[] MAGIC = new byte[]{'q', 'o', 'i', 't'};
+
+    /**
+     * Size of the header of the container (without the offset table)
+     */
+    public static final int HEADER_SIZE = QOISpecification.HEADER_SIZE + 4 + 4;
+
+    // ==================================================================================
+    // ================================ CONTAINER HEADER ================================
+    // ==================================================================================
+
+    /**
+     * Extract the information of the header of a container
+     * @param content (byte[]) - Container, or at least its first HEADER_SIZE bytes
+     * @return (int[]) - {width, height, channels, color space, tile width, tile height}
+     * @throws AssertionError if the header is corrupted
+     */
+    public static int[] decodeHeader(byte[] content){
+        assert content != null : "Content is null";
+        assert content.length >= HEADER_SIZE : "Header is truncated";
+        assert Arrays.equals(content, 0, MAGIC.length, MAGIC, 0, MAGIC.length) : "Magic number is invalid";
+        assert content[12] == QOISpecification.RGB || content[12] == QOISpecification.RGBA : "Number of channels of the container is invalid";
+        assert content[13] == QOISpecification.ALL || content[13] == QOISpecification.sRGB : "Color Space is invalid";
+
+        int width = ArrayUtils.toInt(ArrayUtils.extract(content, 4, 4));
+        int height = ArrayUtils.toInt(ArrayUtils.extract(content, 8, 4));
+        int tileWidth = ArrayUtils.toInt(ArrayUtils.extract(content, 14, 4));
+        int tileHeight = ArrayUtils.toInt(ArrayUtils.extract(content, 18, 4));
+        assert width > 0 && height > 0 && tileWidth > 0 && tileHeight > 0 : "Dimensions are invalid";
+        return new int[]{width, height, content[12], content[13], tileWidth, tileHeight};
+    }
+
+    /**
+     * Number of tiles of an image
+     * @param header (int[]) - Header of the container (See TiledQOI::decodeHeader)
+     * @return (int) - Number of tiles
+     */
+    public static int tileCount(int[] header){
+        return tilesPerRow(header) * ceilDiv(header[1], header[5]);
+    }
+
+    // ==================================================================================
+    // ============================== ENCODING / DECODING ===============================
+    // ==================================================================================
+
+    /**
+     * Encode an image as tiles, in parallel on the common ForkJoinPool
+     * @param image (Helper.Image) - Image to encode
+     * @param tileWidth (int) - Width of the tiles
+     * @param tileHeight (int) - Height of the tiles
+     * @return (byte[]) - The container
+     * @throws AssertionError if the image is null or the tile dimensions are invalid
+     */
+    public static byte[] encode(Helper.Image image, int tileWidth, int tileHeight){
+        return encode(image, tileWidth, tileHeight, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Encode an image as tiles, in parallel on the given pool
+     * @param image (Helper.Image) - Image to encode
+     * @param tileWidth (int) - Width of the tiles
+     * @param tileHeight (int) - Height of the tiles
+     * @param pool (ForkJoinPool) - Pool encoding the tiles
+     * @return (byte[]) - The container
+     * @throws AssertionError if the image is null, the tile dimensions are invalid, a tile or the container is too large
+     */
+    public static byte[] encode(Helper.Image image, int tileWidth, int tileHeight, ForkJoinPool pool){
+        assert image != null : "Image is null";
+        assert tileWidth > 0 && tileHeight > 0 : "Tile dimensions are invalid";
+        int[][] data = image.data();
+        int width = data[0].length;
+        int height = data.length;
+        int[] header = {width, height, image.channels(), image.color_space(), tileWidth, tileHeight};
+        int tiles = tileCount(header);
+
+        byte[][] encoded = new byte[tiles][];
+        pool.submit(() -> IntStream.range(0, tiles).parallel().forEach(tile -> {
+            int[] bounds = tileBounds(header, tile);
+            // Bounded in long, 5 bytes per pixel overflow an int for tiles of about 429 million pixels
+            byte[] output = new byte[QOIEncoder.maxFileSize(bounds[2] - bounds[0], bounds[3] - bounds[1])];
+            QOIEncoder.State state = new QOIEncoder.State();
+            int position = 0;
+            for(int y = bounds[1]; y < bounds[3]; y++){
+                position = QOIEncoder.encodePixels(data[y], bounds[0], bounds[2], state, output, position);
+            }
+            position = QOIEncoder.flush(state, output, position);
+            encoded[tile] = Arrays.copyOf(output, position);
+        })).join();
+
+        long size = HEADER_SIZE + 8L * (tiles + 1) + QOISpecification.QOI_EOF.length;
+        for(byte[] tile : encoded){
+            size += tile.length;
+        }
+        assert size <= Integer.MAX_VALUE - 8 : "Container is too large for one array";
+
+        byte[] result = new byte[(int) size];
+        byte[] qoiHeader = QOIEncoder.qoiHeader(width, height, image.channels(), image.color_space());
+        System.arraycopy(qoiHeader, 0, result, 0, qoiHeader.length);
+        System.arraycopy(MAGIC, 0, result, 0, MAGIC.length);
+        System.arraycopy(ArrayUtils.fromInt(tileWidth), 0, result, QOISpecification.HEADER_SIZE, 4);
+        System.arraycopy(ArrayUtils.fromInt(tileHeight), 0, result, QOISpecification.HEADER_SIZE + 4, 4);
+
+        int tableStart = HEADER_SIZE;
+        long offset = tableStart + 8L * (tiles + 1);
+        for(int tile = 0; tile <= tiles; tile++){
+            writeLong(result, tableStart + 8 * tile, offset);
+            if(tile < tiles){
+                System.arraycopy(encoded[tile], 0, result, (int) offset, encoded[tile].length);
+                offset += encoded[tile].length;
+            }
+        }
+        System.arraycopy(QOISpecification.QOI_EOF, 0, result, (int) offset, QOISpecification.QOI_EOF.length);
+        return result;
+    }
+
+    /**
+     * Decode a container, in parallel on the common ForkJoinPool
+     * @param content (byte[]) - The container
+     * @return (Helper.Image) - The decoded image
+     * @throws AssertionError if the container is null or corrupted
+     */
+    public static Helper.Image decode(byte[] content){
+        return decode(content, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Decode a container, in parallel on the given pool
+     * @param content (byte[]) - The container
+     * @param pool (ForkJoinPool) - Pool decoding the tiles
+     * @return (Helper.Image) - The decoded image
+     * @throws AssertionError if the container is null or corrupted
+     */
+    public static Helper.Image decode(byte[] content, ForkJoinPool pool){
+        int[] header = decodeHeader(content);
+        int tiles = tileCount(header);
+        long[] offsets = readOffsets(content, tiles);
+        int eofStart = content.length - QOISpecification.QOI_EOF.length;
+        assert offsets[tiles] == eofStart : "Offset table is corrupted";
+        assert Arrays.equals(content, eofStart, content.length, QOISpecification.QOI_EOF, 0, QOISpecification.QOI_EOF.length)
+                : "La signature de fin de fichier est corrompue";
+
+        int[][] data = new int[header[1]][header[0]];
+        pool.submit(() -> IntStream.range(0, tiles).parallel().forEach(tile -> {
+            int[] bounds = tileBounds(header, tile);
+            QOIDecoder.State state = new QOIDecoder.State();
+            state.idx = (int) offsets[tile];
+            for(int y = bounds[1]; y < bounds[3]; y++){
+                int decoded = QOIDecoder.decodePixels(content, (int) offsets[tile + 1], state, data[y], bounds[0], bounds[2] - bounds[0]);
+                assert decoded == bounds[2] - bounds[0] : "Tile is too short";
+            }
+            assert state.idx == offsets[tile + 1] && state.run == 0 : "Tile is corrupted";
+        })).join();
+
+        return Helper.generateImage(data, (byte) header[2], (byte) header[3]);
+    }
+
+    /**
+     * Decode a rectangle of a container stored in the disk. Only the offsets and the tiles
+     * intersecting the rectangle are read, with positional reads, so the cost depends on the
+     * size of the rectangle and of the tiles, not on the size of the whole image.
+     * The rows of tiles are decoded in parallel on the common ForkJoinPool
+     * @param path (String) - Relative or Absolute path to the container
+     * @param x (int) - First column of the rectangle
+     * @param y (int) - First row of the rectangle
+     * @param width (int) - Width of the rectangle
+     * @param height (int) - Height of the rectangle
+     * @return (Helper.Image) - The pixels of the rectangle
+     * @throws AssertionError if the rectangle is not inside the image or the container is corrupted
+     */
+    public static Helper.Image decodeRegion(String path, int x, int y, int width, int height){
+        assert x >= 0 && y >= 0 && width > 0 && height > 0 : "Region is invalid";
+        try(var channel = FileChannel.open(Path.of(path), StandardOpenOption.READ)){
+            int[] header = decodeHeader(read(channel, 0, HEADER_SIZE));
+            assert (long) x + width <= header[0] && (long) y + height <= header[1] : "Region is outside of the image";
+
+            int firstColumn = x / header[4];
+            int lastColumn = (x + width - 1) / header[4];
+            int[][] data = new int[height][width];
+            IntStream.rangeClosed(y / header[5], (y + height - 1) / header[5]).parallel().forEach(tileRow -> {
+                try {
+                    decodeTiles(channel, header, tileRow, firstColumn, lastColumn, x, y, data);
+                } catch (IOException e){
+                    throw new UncheckedIOException(e);
+                }
+            });
+            return Helper.generateImage(data, (byte) header[2], (byte) header[3]);
+        } catch (IOException | UncheckedIOException e){
+            return Helper.fail("An error occurred while trying to read from : \"%s\"%n", path);
+        }
+    }
+
+    /**
+     * Convert a "Quite Ok Image" file to a container, losslessly
+     * @param qoi (byte[]) - Content of the "Quite Ok Image" file
+     * @param tileWidth (int) - Width of the tiles
+     * @param tileHeight (int) - Height of the tiles
+     * @return (byte[]) - The container
+     */
+    public static byte[] fromQoi(byte[] qoi, int tileWidth, int tileHeight){
+        return encode(QOIDecoder.decodeQoiFilePacked(qoi), tileWidth, tileHeight);
+    }
+
+    /**
+     * Convert a container to a "Quite Ok Image" file, losslessly
+     * @param content (byte[]) - The container
+     * @return (byte[]) - Content of the "Quite Ok Image" file
+     */
+    public static byte[] toQoi(byte[] content){
+        return QOIEncoder.qoiFilePacked(decode(content));
+    }
+
+    /**
+     * Convert between "Quite Ok Image" files and containers.
+     * The outputs are written to the folder "res/"
+     * @param args (String[]) - "tile" input output tileWidth tileHeight, "untile" input output
+     * or "crop" input output x y width height (writes the rectangle as "PNG")
+     */
+    public static void main(String[] args){
+        if(args.length == 5 && args[0].equals("tile")){
+            Helper.write(args[2], fromQoi(Helper.read(args[1]), Integer.parseInt(args[3]), Integer.parseInt(args[4])));
+        } else if(args.length == 3 && args[0].equals("untile")){
+            Helper.write(args[2], toQoi(Helper.read(args[1])));
+        } else if(args.length == 7 && args[0].equals("crop")){
+            Helper.writeImage(args[2], decodeRegion(args[1], Integer.parseInt(args[3]), Integer.parseInt(args[4]),
+                    Integer.parseInt(args[5]), Integer.parseInt(args[6])));
+        } else {
+            System.out.println("Usage : TiledQOI tile <input.qoi> <output.qoit> <tile width> <tile height>");
+            System.out.println("        TiledQOI untile <input.qoit> <output.qoi>");
+            System.out.println("        TiledQOI crop <input.qoit> <output.png> <x> <y> <width> <height>");
+        }
+    }
+
+    // ==================================================================================
+
+    static int tilesPerRow(int[] header){
+        return ceilDiv(header[0], header[4]);
+    }
+
+    /**
+     * Pixels covered by a tile
+     * @param header (int[]) - Header of the container
+     * @param tile (int) - Index of the tile
+     * @return (int[]) - {first column, first row, column after the last, row after the last}
+     */
+    static int[] tileBounds(int[] header, int tile){
+        int perRow = tilesPerRow(header);
+        int x = (tile % perRow) * header[4];
+        int y = (tile / perRow) * header[5];
+        return new int[]{x, y, Math.min(header[0], x + header[4]), Math.min(header[1], y + header[5])};
+    }
+
+    /**
+     * Read the offset table of a container
+     * @param content (byte[]) - The container, or at least its header and offset table
+     * @param tiles (int) - Number of tiles
+     * @return (long[]) - Offset of every tile, then the end of the last tile
+     */
+    static long[] readOffsets(byte[] content, int tiles){
+        return readOffsets(content, HEADER_SIZE, tiles);
+    }
+
+    /**
+     * Read consecutive entries of the offset table
+     * @param content (byte[]) - Array containing the entries
+     * @param start (int) - Index in content of the first entry
+     * @param tiles (int) - Number of entries to read, minus one
+     * @return (long[]) - The tiles + 1 offsets
+     */
+    static long[] readOffsets(byte[] content, int start, int tiles){
+        assert content.length >= start + 8L * (tiles + 1) : "Offset table is truncated";
+        long[] offsets = new long[tiles + 1];
+        for(int tile = 0; tile <= tiles; tile++){
+            long offset = 0;
+            for(int iByte = 0; iByte < 8; iByte++){
+                offset = (offset << 8) | (content[start + 8 * tile + iByte] & 0xFF);
+            }
+            offsets[tile] = offset;
+            assert tile == 0 || offset >= offsets[tile - 1] : "Offset table is corrupted";
+        }
+        return offsets;
+    }
+
+    /**
+     * Decode the tiles of one row of tiles between two columns of tiles, and copy
+     * their pixels inside the region
+     */
+    private static void decodeTiles(FileChannel channel, int[] header, int tileRow, int firstColumn, int lastColumn,
+                                    int x, int y, int[][] region) throws IOException {
+        int first = tileRow * tilesPerRow(header) + firstColumn;
+        int count = lastColumn - firstColumn + 1;
+        long[] offsets = readOffsets(read(channel, HEADER_SIZE + 8L * first, 8 * (count + 1)), 0, count);
+        // The tiles of a row are contiguous, they are read at once
+        long start = offsets[0];
+        long length = offsets[count] - start;
+        assert length <= Integer.MAX_VALUE : "Tiles are too large";
+        byte[] chunks = read(channel, start, (int) length);
+
+        int[] row = new int[header[4]];
+        for(int iTile = 0; iTile < count; iTile++){
+            int[] bounds = tileBounds(header, first + iTile);
+            int from = Math.max(x, bounds[0]);
+            int to = Math.min(x + region[0].length, bounds[2]);
+            QOIDecoder.State state = new QOIDecoder.State();
+            state.idx = (int) (offsets[iTile] - start);
+            int end = (int) (offsets[iTile + 1] - start);
+            int lastRow = Math.min(bounds[3], y + region.length);
+            for(int iRow = bounds[1]; iRow < lastRow; iRow++){
+                int decoded = QOIDecoder.decodePixels(chunks, end, state, row, 0, bounds[2] - bounds[0]);
+                assert decoded == bounds[2] - bounds[0] : "Tile is too short";
+                if(iRow >= y)
+                    System.arraycopy(row, from - bounds[0], region[iRow - y], from - x, to - from);
+            }
+        }
+    }
+
+    private static byte[] read(FileChannel channel, long position, int length) throws IOException {
+        var buffer = ByteBuffer.allocate(length);
+        while(buffer.hasRemaining()){
+            if(channel.read(buffer, position + buffer.position()) < 0)
+                throw new IOException("File is truncated");
+        }
+        return buffer.array();
+    }
+
+    private static void writeLong(byte[] output, int position, long value){
+        for(int iByte = 0; iByte < 8; iByte++){
+            output[position + iByte] = (byte) (value >>> ((7 - iByte) * 8));
+        }
+    }
+
+    private static int ceilDiv(int a, int b){
+        return (int) (((long) a + b - 1) / b);
+    }
+
+}
\ No newline at end of file